@@ -0,0 +1,181 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/* The raw result of a render: the basin and iteration count of every pixel, 2 bytes per pixel. This is all
+ * that's needed to color the image (see Colorizer), so a render can be saved once and recolored as often as
+ * you like without solving it again.
+ *
+ * Pixel n (= j*width + i) is 2 bytes: basin + 1 (so 0 means not solved yet), then the iteration count (up
+ * to 255; higher counts are stored as 255). That limits a render to 254 basins. On disk the pixels come
+ * after a 16 byte header - "NFPB", a version number, width and height as big-endian ints - with nothing
+ * compressed, so a file can be memory mapped and used directly, however big it is.
+ * */
+
+public class BasinBuffer {
+
+  private static final int MAGIC = 0x4E465042;   //"NFPB"
+  private static final int VERSION = 1;
+  public static final int HEADER_BYTES = 16;
+  //Largest basin number that fits (basin + 1 has to fit in a byte).
+  public static final int MAX_BASIN = 254;
+
+  private final int width;
+  private final int height;
+  //The pixels, starting at position 0.
+  private final ByteBuffer data;
+
+  private BasinBuffer(int width, int height, ByteBuffer data) {
+    this.width = width;
+    this.height = height;
+    this.data = data;
+  }
+
+  //An empty (all unsolved) buffer in memory.
+  public BasinBuffer(int width, int height) {
+    this(width, height, ByteBuffer.allocate(bytes(width, height)));
+  }
+
+  //A buffer holding samples (from BasinSampler) of a width x height image.
+  public static BasinBuffer fromSamples(int[] samples, int width, int height) {
+    BasinBuffer b = new BasinBuffer(width, height);
+    b.setSamples(samples);
+    return b;
+  }
+
+  //Make a new file for a width x height render and map it into memory, all unsolved. Everything set in
+  //the buffer goes straight to the file (call force() to be sure it's on disk).
+  public static BasinBuffer create(File file, int width, int height) throws IOException {
+    long length = HEADER_BYTES + (long)bytes(width, height);
+    try(FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE)) {
+      MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_WRITE, 0, length);
+      map.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+      map.position(HEADER_BYTES);
+      return new BasinBuffer(width, height, map.slice());
+    }
+  }
+
+  //Map a file written by save() or create() into memory. If writable is false the buffer can only be read.
+  public static BasinBuffer open(File file, boolean writable) throws IOException {
+    StandardOpenOption[] options = writable
+      ? new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE}
+      : new StandardOpenOption[] {StandardOpenOption.READ};
+    try(FileChannel ch = FileChannel.open(file.toPath(), options)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      ch.read(header, 0);
+      header.flip();
+      if(header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+        throw new IOException(file + " isn't a basin buffer");
+      }
+      if(header.getInt() != VERSION) {
+        throw new IOException(file + " is from a different version");
+      }
+      int width = header.getInt();
+      int height = header.getInt();
+      if(ch.size() != HEADER_BYTES + (long)bytes(width, height)) {
+        throw new IOException(file + " is the wrong size for a " + width + " x " + height + " image");
+      }
+      MappedByteBuffer map = ch.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                                    HEADER_BYTES, bytes(width, height));
+      return new BasinBuffer(width, height, map);
+    }
+  }
+
+  //Write this buffer to file, in the format open() reads.
+  public void save(File file) throws IOException {
+    try(FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+      header.flip();
+      ByteBuffer pixels = data.duplicate();
+      pixels.clear();
+      while(header.hasRemaining() || pixels.hasRemaining()) {
+        ch.write(new ByteBuffer[] {header, pixels});
+      }
+    }
+  }
+
+  //Make sure everything set in a mapped buffer has been written to its file.
+  public void force() {
+    if(data instanceof MappedByteBuffer) {
+      ((MappedByteBuffer) data).force();
+    }
+  }
+
+  //Bytes needed for the pixels of a width x height image. (Has to fit in one ByteBuffer.)
+  private static int bytes(int width, int height) {
+    long n = 2L * width * height;
+    if(n > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(width + " x " + height + " is too big for one BasinBuffer");
+    }
+    return (int) n;
+  }
+
+  //The 2 byte code of a sample. Iteration counts over 255 are stored as 255.
+  public static char encode(int sample) {
+    if(sample == RenderEngine.UNSOLVED) {
+      return 0;
+    }
+    int basin = BasinSampler.basin(sample);
+    if(basin > MAX_BASIN) {
+      throw new IllegalArgumentException("Basin " + basin + " doesn't fit in a BasinBuffer");
+    }
+    return (char) (((basin + 1) << 8) | Math.min(BasinSampler.iterations(sample), 255));
+  }
+
+  //The sample of a 2 byte code (RenderEngine.UNSOLVED for 0).
+  public static int decode(char code) {
+    if(code >>> 8 == 0) {
+      return RenderEngine.UNSOLVED;
+    }
+    return BasinSampler.pack((code >>> 8) - 1, code & 0xFF);
+  }
+
+  //2 byte code of pixel n (= j*width + i).
+  public char code(int n) {
+    return data.getChar(2 * n);
+  }
+
+  //Sample of pixel n (= j*width + i), or RenderEngine.UNSOLVED.
+  public int get(int n) {
+    return decode(code(n));
+  }
+
+  public void set(int n, int sample) {
+    data.putChar(2 * n, encode(sample));
+  }
+
+  //Set every pixel from samples (row by row, width x height of them).
+  public void setSamples(int[] samples) {
+    setSamples(samples, 0, 0, width * height);
+  }
+
+  //Set pixels n0 <= n < n0 + count from samples[offset] onwards.
+  public void setSamples(int[] samples, int offset, int n0, int count) {
+    for(int n = 0; n < count; n++) {
+      data.putChar(2 * (n0 + n), encode(samples[offset + n]));
+    }
+  }
+
+  //Every pixel as a sample.
+  public int[] toSamples() {
+    int[] samples = new int[width * height];
+    for(int n = 0; n < samples.length; n++) {
+      samples[n] = get(n);
+    }
+    return samples;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+}
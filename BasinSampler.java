@@ -0,0 +1,171 @@
+import java.util.List;
+
+/* Works out which basin each pixel of a Window belongs to, and how many iterations it took to get there.
+ * The two are packed into one int, a "sample" - see pack(), basin() and iterations(). Points that don't
+ * end up near any root get basin roots.size(), the "extra" basin. If the solver detects cycles, points it gave up
+ * on for going round one get basin roots.size() + 1, the "cycle" basin, so palettes need a color for that too.
+ * 
+ * Newton's method goes through BatchNewton a row (or a batch of pixels) at a time; other methods go pixel by pixel.
+ *
+ * With earlyExit, Newton's method on a Polynomial stops as soon as a point lands in one of the ConvergenceDisks
+ * around the roots, and takes that disk's basin. Every pixel ends up in the same basin as without it, but
+ * most take a few iterations fewer, so the alpha bands of the image move.
+ *
+ * Given the array the render is filling in, Newton's method on a Polynomial also stops as soon as a point
+ * lands on a pixel that's already been solved, taking that pixel's basin (see SolvedPixels). This only helps
+ * renders that fill in an array (RenderEngine.sample(), sampleAdaptive(), sampleProgressive() and
+ * sampleMissing()), and isn't exact: now and then a pixel ends up in another basin than it would without it.
+ * */
+
+public class BasinSampler implements RenderEngine.Sampler {
+  
+  private final IterativeMethod solver;
+  //(null unless solver is Newton's method)
+  private final BatchNewton batch;
+  private final Window window;
+  //End points within MATCH_RADIUS of a root are in its basin.
+  public static final double MATCH_RADIUS = 0.01;
+  
+  //Roots, indexed for quick lookups.
+  private final RootIndex roots;
+  //x coordinates of each column and y coordinates of each row of the window.
+  private final double[] xs;
+  private final double[] ys;
+  //Scratch space for the pixel by pixel solvers, one per thread.
+  private final ThreadLocal<SolveResult> scratch = ThreadLocal.withInitial(SolveResult::new);
+  
+  public BasinSampler(IterativeMethod solver, List<Complex> roots, Window window) {
+    this(solver, roots, window, false);
+  }
+  
+  public BasinSampler(IterativeMethod solver, List<Complex> roots, Window window, boolean earlyExit) {
+    this(solver, roots, window, earlyExit, null);
+  }
+  
+  //Same, also stopping on the pixels of solved that are done (if it isn't null). solved has to be the array
+  //the samples go into, and start out all 0 or RenderEngine.UNSOLVED.
+  public BasinSampler(IterativeMethod solver, List<Complex> roots, Window window, boolean earlyExit, int[] solved) {
+    this.solver = solver;
+    ComplexFunction fn = solver.getFunction();
+    ConvergenceDisks disks = null;
+    if(earlyExit && solver instanceof NFPIMethod && fn.getEvaluator() instanceof Polynomial) {
+      disks = new ConvergenceDisks((Polynomial) fn.getEvaluator(), fn.getK(), roots, MATCH_RADIUS);
+    }
+    SolvedPixels landing = null;
+    if(solved != null && solver instanceof NFPIMethod && fn.getEvaluator() instanceof Polynomial) {
+      landing = new SolvedPixels(solved, window, roots.size(), solver.getMaxIterations());
+    }
+    this.batch = solver instanceof NFPIMethod ? new BatchNewton((NFPIMethod) solver, disks, landing) : null;
+    this.window = window;
+    this.roots = new RootIndex(roots, MATCH_RADIUS);
+    xs = new double[window.getWidth()];
+    for(int i = 0; i < xs.length; i++) {
+      xs[i] = window.x(i);
+    }
+    ys = new double[window.getHeight()];
+    for(int j = 0; j < ys.length; j++) {
+      ys[j] = window.y(j);
+    }
+  }
+  
+  //Put a basin number and an iteration count together into one int.
+  public static int pack(int basin, int iterations) {
+    return (basin << 16) | iterations;
+  }
+  
+  public static int basin(int sample) {
+    return sample >>> 16;
+  }
+  
+  public static int iterations(int sample) {
+    return sample & 0xFFFF;
+  }
+  
+  //Solve from pixel (i, j).
+  public int sample(int i, int j, SolveResult scratch) {
+    solver.solve(xs[i], ys[j], scratch);
+    int basin = scratch.isCycle() ? roots.size() + 1 : classify(scratch.getRe(), scratch.getIm());
+    return pack(basin, scratch.getIterations());
+  }
+  
+  //Solve from pixels i0 <= i < i1 of row j, into out[0] to out[i1 - i0 - 1].
+  public void sampleRow(int j, int i0, int i1, int[] out) {
+    if(batch != null) {
+      BatchNewton.Row row = batch.solveRow(xs, ys[j], i0, i1);
+      for(int n = 0; n < i1 - i0; n++) {
+        out[n] = pack(basin(row, n), row.iterations[n]);
+      }
+    } else {
+      SolveResult s = scratch.get();
+      for(int n = 0; n < i1 - i0; n++) {
+        out[n] = sample(i0 + n, j, s);
+      }
+    }
+  }
+  
+  //Solve from the count pixels (is[n], js[n]), into out[0] to out[count - 1].
+  public void samplePoints(int[] is, int[] js, int count, int[] out) {
+    if(batch != null) {
+      BatchNewton.Row points = batch.solvePoints(xs, is, ys, js, count);
+      for(int n = 0; n < count; n++) {
+        out[n] = pack(basin(points, n), points.iterations[n]);
+      }
+    } else {
+      SolveResult s = scratch.get();
+      for(int n = 0; n < count; n++) {
+        out[n] = sample(is[n], js[n], s);
+      }
+    }
+  }
+  
+  //Solve from pixels i0 <= i < i1 of row j once for each k in ks, into out[m][j*width + i] for ks[m]. Each
+  //pixel's f and f' are only worked out once for all the k's (see BatchNewton.solveRowSweep()), so this is
+  //quicker than rendering each k on its own, with the same result. Only works for Newton's method on a
+  //Polynomial, and doesn't stop early in ConvergenceDisks (they're different for each k).
+  public void sampleRowSweep(int j, int i0, int i1, double[] ks, int[][] out) {
+    if(batch == null) {
+      throw new UnsupportedOperationException("k sweeps only work with Newton's method");
+    }
+    BatchNewton.Row row = batch.solveRowSweep(xs, ys[j], i0, i1, ks);
+    int count = i1 - i0;
+    int base = j * xs.length + i0;
+    for(int m = 0; m < ks.length; m++) {
+      for(int n = 0; n < count; n++) {
+        int o = m * count + n;
+        out[m][base + n] = pack(basin(row, o), row.iterations[o]);
+      }
+    }
+  }
+  
+  //Compare the end of an iteration, re + im*i, to the roots, and return the number of the root that it
+  //matched. If a match isn't found, return the number of roots - which is what the next root would be if
+  //there was one. Thus all points that don't converge, cyclical patterns that don't end up at one root or
+  //another, etc end up in an "extra" basin. (Compares within MATCH_RADIUS, through a RootIndex so it takes
+  //the same time however many roots there are.)
+  public int classify(double re, double im) {
+    int root = roots.find(re, im);
+    return root < 0 ? roots.size() : root;
+  }
+  
+  //Basin of pixel n of a BatchNewton result: the disk it stopped in, if it did, or the cycle basin.
+  private int basin(BatchNewton.Row row, int n) {
+    if(row.cycles[n]) {
+      return roots.size() + 1;
+    }
+    return row.basins[n] >= 0 ? row.basins[n] : classify(row.re[n], row.im[n]);
+  }
+  
+  public Window getWindow() {
+    return window;
+  }
+  
+  //Number of roots. Also the basin number of points that didn't end up near any of them.
+  public int getRootCount() {
+    return roots.size();
+  }
+  
+  //Basin number of points caught in a cycle (only used if the solver detects cycles).
+  public int getCycleBasin() {
+    return roots.size() + 1;
+  }
+}
@@ -0,0 +1,380 @@
+import java.util.Arrays;
+
+/* Newton's method run on a row of pixels at a time, several pixels ("lanes") side by side. The arithmetic for
+ * all lanes is done in plain loops over small arrays with no branches in them, which the JIT compiles to
+ * SIMD instructions, so one core advances LANES pixels for about the price of one. Each lane checks TOL on
+ * its own, and a lane that is done is immediately refilled with the next pixel of the row, so no lane sits
+ * idle waiting for the slowest pixel.
+ *
+ * Only used for Polynomials (the hottest case). For any other function each pixel goes through NFPIMethod
+ * one at a time. Either way the results are identical to NFPIMethod's (cycle detection included), unless it's
+ * given ConvergenceDisks: then a pixel also stops as soon as it lands in one of the disks, with that disk's
+ * basin. Given SolvedPixels, a pixel also stops as soon as it lands on one of them (see there).
+ * */
+
+public class BatchNewton {
+
+  //Pixels advanced together. Several vector registers' worth, so the JIT has enough independent work to hide
+  //the latency of each Horner step, while still being about half a row of a tile.
+  public static final int LANES = 32;
+
+  private final NFPIMethod scalar;
+  //Coefficients of the polynomial, or null if the function isn't one.
+  private final double[] cr;
+  private final double[] ci;
+  private final double scale;
+  //(null unless stopping early in ConvergenceDisks)
+  private final ConvergenceDisks disks;
+  //(null unless stopping on pixels already solved)
+  private final SolvedPixels solved;
+
+  //Results of the last row solved on each thread.
+  private final ThreadLocal<Row> rows = ThreadLocal.withInitial(() -> new Row(0));
+
+  //Results for a row (or any list) of pixels. Pixel n of the row ended up at re[n] + im[n]*i after
+  //iterations[n] iterations.
+  public static class Row {
+    public double[] re;
+    public double[] im;
+    public int[] iterations;
+    public boolean[] converged;
+    //Basin of the ConvergenceDisk or SolvedPixels pixel the pixel stopped in, or -1 if it didn't stop in one.
+    public int[] basins;
+    //Whether the pixel was stopped for going round a cycle (see IterativeMethod.cycling()).
+    public boolean[] cycles;
+    //Starting points.
+    final double[] x;
+    final double[] y;
+    //(For k sweeps: the iteration each point starts on, its 1/k, and where its result goes.)
+    final int[] first;
+    final double[] scale;
+    final int[] items;
+    //(Used for NFPIMethod when the function isn't a Polynomial)
+    final SolveResult scratch = new SolveResult();
+    //Current iterate, f, f', and the distance moved for each lane.
+    final double[] zr = new double[LANES], zi = new double[LANES];
+    final double[] pr = new double[LANES], pi = new double[LANES];
+    final double[] dr = new double[LANES], di = new double[LANES];
+    final double[] dist = new double[LANES];
+    //Squared step length, the iterate saved for cycle detection, the squared distance back to it, and the
+    //iteration to save the next one at.
+    final double[] step2 = new double[LANES], back2 = new double[LANES];
+    final double[] sr = new double[LANES], si = new double[LANES];
+    final int[] save = new int[LANES];
+    //1/k for each lane.
+    final double[] ls = new double[LANES];
+    //Which pixel each lane is working on (-1 once the row is used up), and its iteration count.
+    final int[] pixel = new int[LANES];
+    final int[] iter = new int[LANES];
+
+    Row(int width) {
+      re = new double[width];
+      im = new double[width];
+      iterations = new int[width];
+      converged = new boolean[width];
+      basins = new int[width];
+      cycles = new boolean[width];
+      x = new double[width];
+      y = new double[width];
+      first = new int[width];
+      scale = new double[width];
+      items = new int[width];
+    }
+  }
+
+  public BatchNewton(ComplexFunction fn) {
+    this(new NFPIMethod(fn), null);
+  }
+
+  //Newton's method with solver's function, N and TOL. Also stops each pixel as soon as it lands in one of
+  //disks (if it isn't null, and is for the same polynomial and k).
+  public BatchNewton(NFPIMethod solver, ConvergenceDisks disks) {
+    this(solver, disks, null);
+  }
+
+  //Same, also stopping each pixel as soon as it lands on one of solved (if it isn't null). Like disks, this is
+  //only for Polynomials.
+  public BatchNewton(NFPIMethod solver, ConvergenceDisks disks, SolvedPixels solved) {
+    this.disks = disks != null && disks.size() > 0 ? disks : null;
+    this.solved = solved;
+    scalar = solver;
+    ComplexFunction fn = solver.getFunction();
+    scale = 1/fn.getK();
+    if(fn.getEvaluator() instanceof Polynomial) {
+      Polynomial poly = (Polynomial) fn.getEvaluator();
+      cr = new double[poly.degree() + 1];
+      ci = new double[poly.degree() + 1];
+      for(int p = 0; p <= poly.degree(); p++) {
+        cr[p] = poly.coefficient(p).getA();
+        ci[p] = poly.coefficient(p).getB();
+      }
+    } else {
+      cr = null;
+      ci = null;
+    }
+  }
+
+  //Run Newton's method from xs[n] + y*i for from <= n < to. The result for xs[n] is at index n - from of the
+  //returned Row, which belongs to the calling thread and is reused by its next call.
+  public Row solveRow(double[] xs, double y, int from, int to) {
+    int count = to - from;
+    Row row = row(count);
+    System.arraycopy(xs, from, row.x, 0, count);
+    Arrays.fill(row.y, 0, count, y);
+    return solve(row, count);
+  }
+
+  //Same as solveRow(), but for any count points xs[is[n]] + ys[js[n]]*i, like the pixels around the edge of
+  //a tile. Putting them through together keeps the lanes full, where separate short rows and columns would
+  //leave most lanes idle waiting for their slowest pixel.
+  public Row solvePoints(double[] xs, int[] is, double[] ys, int[] js, int count) {
+    Row row = row(count);
+    for(int n = 0; n < count; n++) {
+      row.x[n] = xs[is[n]];
+      row.y[n] = ys[js[n]];
+    }
+    return solve(row, count);
+  }
+
+  //Run Newton's method from xs[n] + y*i for from <= n < to once for each k in ks (the function's own k is
+  //ignored). The result for xs[n] and ks[m] is at index m*(to - from) + n - from of the returned Row, and is
+  //identical to solving with NFPIMethod for that k. f and f' at each starting point are only worked out
+  //once, and the first step for every k is taken from them. Only works for Polynomials.
+  public Row solveRowSweep(double[] xs, double y, int from, int to, double[] ks) {
+    if(cr == null) {
+      throw new UnsupportedOperationException("k sweeps only work on Polynomials");
+    }
+    int count = to - from;
+    int N = scalar.getMaxIterations();
+    double TOL = scalar.getTolerance();
+    int deg = cr.length - 1;
+    Row row = row(count * ks.length);
+    int todo = 0;
+    for(int n = 0; n < count; n++) {
+      double x = xs[from + n];
+      //Horner's rule for f and f', then f/f'. (Same arithmetic as solveLanes().)
+      double pr = cr[deg], pi = ci[deg], dr = 0, di = 0;
+      for(int p = deg - 1; p >= 0; p--) {
+        double t = (dr * x) - (di * y) + pr;
+        di = (di * x) + (dr * y) + pi;
+        dr = t;
+        t = (pr * x) - (pi * y) + cr[p];
+        pi = (pi * x) + (pr * y) + ci[p];
+        pr = t;
+      }
+      double numerator = (pr * dr) + (pi * di);
+      double denominator = (dr * dr) + (di * di);
+      double qa = numerator/denominator;
+      numerator = (pi * dr) - (pr * di);
+      double qb = numerator/denominator;
+      //The first step for each k. Points that aren't done after it carry on in the lanes from there.
+      for(int m = 0; m < ks.length; m++) {
+        double scale = 1/ks[m];
+        double re1 = x - scale*qa;
+        double im1 = y - scale*qb;
+        double da = re1 - x;
+        double db = im1 - y;
+        int o = m * count + n;
+        boolean converged = Math.sqrt( (da*da) + (db*db) ) < TOL;
+        if(converged || N < 2) {
+          row.re[o] = re1;
+          row.im[o] = im1;
+          row.iterations[o] = converged ? 1 : 2;
+          row.converged[o] = converged;
+          row.basins[o] = -1;
+          row.cycles[o] = false;
+        } else {
+          row.x[todo] = re1;
+          row.y[todo] = im1;
+          row.first[todo] = 2;
+          row.scale[todo] = scale;
+          row.items[todo] = o;
+          todo++;
+        }
+      }
+    }
+    solveLanes(row.x, row.y, row.first, row.scale, row.items, todo, row, null, null);
+    return row;
+  }
+
+  //This thread's Row, with room for count pixels.
+  private Row row(int count) {
+    Row row = rows.get();
+    if(row.re.length < count) {
+      row = new Row(count);
+      rows.set(row);
+    }
+    return row;
+  }
+
+  //Solve from row.x[n] + row.y[n]*i for n < count.
+  private Row solve(Row row, int count) {
+    if(cr == null) {
+      for(int n = 0; n < count; n++) {
+        scalar.solve(row.x[n], row.y[n], row.scratch);
+        row.re[n] = row.scratch.getRe();
+        row.im[n] = row.scratch.getIm();
+        row.iterations[n] = row.scratch.getIterations();
+        row.converged[n] = row.scratch.isConverged();
+        row.basins[n] = -1;
+        row.cycles[n] = row.scratch.isCycle();
+      }
+    } else {
+      solveLanes(row.x, row.y, null, null, null, count, row, disks, solved);
+    }
+    return row;
+  }
+
+  //Solve from xs[n] + ys[n]*i for n < count, into row. If first is null every point starts on iteration 1
+  //with this function's k, and its result goes at index n; otherwise point n starts on iteration first[n]
+  //with 1/k = scales[n], and its result goes at index items[n]. disks and solved can be null.
+  private void solveLanes(double[] xs, double[] ys, int[] first, double[] scales, int[] items, int count, Row row,
+                          ConvergenceDisks disks, SolvedPixels solved) {
+    //Same limits as NFPIMethod.
+    int N = scalar.getMaxIterations();
+    final double TOL = scalar.getTolerance();
+    boolean cycles = scalar.detectsCycles();
+    int deg = cr.length - 1;
+    //Only steps shorter than this are looked up in the disks, which saves the lookup on the long steps a point
+    //takes while it's still far from any root. It's only a guess: a long step can end in a disk too, and is
+    //then missed. That only loses the early exit for that step, not the right answer - the point is still in
+    //the disk, so its next step is short (and is looked up), and the TOL test runs as usual either way.
+    double near = disks == null ? 0 : 2 * disks.getMaxRadius();
+
+    double[] zr = row.zr, zi = row.zi;
+    double[] pr = row.pr, pi = row.pi;
+    double[] dr = row.dr, di = row.di;
+    double[] dist = row.dist;
+    double[] step2 = row.step2, back2 = row.back2;
+    double[] sr = row.sr, si = row.si;
+    int[] save = row.save;
+    double[] ls = row.ls;
+    int[] pixel = row.pixel;
+    int[] iter = row.iter;
+
+    //Short rows (like the edges of tiles in RenderEngine.sampleAdaptive()) only use as many lanes as they
+    //have pixels, so they don't pay for LANES pixels' worth of arithmetic.
+    int lanes = Math.min(LANES, count);
+    int next = 0;
+    int busy = 0;
+    for(int l = 0; l < lanes; l++) {
+      if(next < count) {
+        zr[l] = xs[next];
+        zi[l] = ys[next];
+        iter[l] = first == null ? 1 : first[next];
+        ls[l] = first == null ? scale : scales[next];
+        sr[l] = zr[l];
+        si[l] = zi[l];
+        save[l] = iter[l];
+        pixel[l] = next++;
+        busy++;
+      } else {
+        pixel[l] = -1;
+      }
+    }
+
+    while(busy > 0) {
+      //Horner's rule for f and f', all lanes at once. (Same arithmetic as Polynomial.evaluate().)
+      for(int l = 0; l < lanes; l++) {
+        pr[l] = cr[deg];
+        pi[l] = ci[deg];
+        dr[l] = 0;
+        di[l] = 0;
+      }
+      for(int p = deg - 1; p >= 0; p--) {
+        double c0 = cr[p], c1 = ci[p];
+        for(int l = 0; l < lanes; l++) {
+          double t = (dr[l] * zr[l]) - (di[l] * zi[l]) + pr[l];
+          di[l] = (di[l] * zr[l]) + (dr[l] * zi[l]) + pi[l];
+          dr[l] = t;
+          t = (pr[l] * zr[l]) - (pi[l] * zi[l]) + c0;
+          pi[l] = (pi[l] * zr[l]) + (pr[l] * zi[l]) + c1;
+          pr[l] = t;
+        }
+      }
+      //Newton step, all lanes at once. (Same arithmetic as NFPIMethod.solve().)
+      for(int l = 0; l < lanes; l++) {
+        double numerator = (pr[l] * dr[l]) + (pi[l] * di[l]);
+        double denominator = (dr[l] * dr[l]) + (di[l] * di[l]);
+        double qa = numerator/denominator;
+        numerator = (pi[l] * dr[l]) - (pr[l] * di[l]);
+        double qb = numerator/denominator;
+        double re1 = zr[l] - ls[l]*qa;
+        double im1 = zi[l] - ls[l]*qb;
+        double da = re1 - zr[l];
+        double db = im1 - zi[l];
+        zr[l] = re1;
+        zi[l] = im1;
+        step2[l] = (da*da) + (db*db);
+        dist[l] = Math.sqrt(step2[l]);
+      }
+      if(cycles) {
+        for(int l = 0; l < lanes; l++) {
+          double ca = zr[l] - sr[l];
+          double cb = zi[l] - si[l];
+          back2[l] = (ca*ca) + (cb*cb);
+        }
+      }
+      //Check each lane against TOL, record finished pixels and refill their lanes. Lanes with nothing
+      //left to do just keep iterating on garbage, which is cheaper than masking them out.
+      for(int l = 0; l < lanes; l++) {
+        int n = pixel[l];
+        if(n < 0) {
+          continue;
+        }
+        boolean converged = dist[l] < TOL;
+        int basin = -1;
+        if(!converged && dist[l] < near) {
+          basin = disks.find(zr[l], zi[l]);
+          converged = basin >= 0;
+        }
+        //Landing on a solved pixel, it takes that pixel's iterations on top of its own, if that's within N.
+        int landed = 0;
+        if(!converged && solved != null) {
+          int sample = solved.find(zr[l], zi[l]);
+          if(sample >= 0 && iter[l] + BasinSampler.iterations(sample) <= N) {
+            basin = BasinSampler.basin(sample);
+            landed = BasinSampler.iterations(sample);
+            converged = true;
+          }
+        }
+        //Brent's cycle check, the same as NFPIMethod's. (Points from solveRowSweep() start on iteration 2
+        //from their first iterate, which is just where NFPIMethod's check is after iteration 1.)
+        boolean cycle = false;
+        if(!converged && cycles) {
+          cycle = IterativeMethod.cycling(back2[l], step2[l], TOL);
+          if(!cycle && iter[l] == save[l]) {
+            sr[l] = zr[l];
+            si[l] = zi[l];
+            save[l] *= 2;
+          }
+        }
+        if(!converged && !cycle) {
+          iter[l]++;
+        }
+        if(converged || cycle || iter[l] > N) {
+          int o = items == null ? n : items[n];
+          row.re[o] = zr[l];
+          row.im[o] = zi[l];
+          row.iterations[o] = cycle ? N + 1 : iter[l] + landed;
+          row.converged[o] = converged;
+          row.basins[o] = basin;
+          row.cycles[o] = cycle;
+          if(next < count) {
+            zr[l] = xs[next];
+            zi[l] = ys[next];
+            iter[l] = first == null ? 1 : first[next];
+            ls[l] = first == null ? scale : scales[next];
+            sr[l] = zr[l];
+            si[l] = zi[l];
+            save[l] = iter[l];
+            pixel[l] = next++;
+          } else {
+            pixel[l] = -1;
+            busy--;
+          }
+        }
+      }
+    }
+  }
+}
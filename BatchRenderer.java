@@ -0,0 +1,351 @@
+/* Renders every job in a manifest file without asking anything, in one run of the JVM - for rendering lots
+ * of images at once, without paying for starting Java (and warming up the JIT) for each of them. Jobs share
+ * one RenderEngine, and a few of them run at once so writing one job's PNG overlaps solving the next.
+ * */
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/*Instructions for Use
+ *
+ * Run with a manifest, and optionally the directory to write the images to and how many jobs to run at once:
+ *
+ *    java BatchRenderer jobs.txt [outputDir] [jobsAtOnce]
+ *
+ * Each line of the manifest is one image, given as key=value settings separated by spaces (blank lines and
+ * lines starting with # are skipped), e.g.
+ *
+ *    name=cubic roots=1;0;-1 k=0.8 window=-2,2,-1,1 size=1920x1080
+ *    coefficients=-1;0;0;0;0;1 solver=halley n=40 alpha=8
+ *
+ *    name=         file name for the image, name.png (default: batch_ and a hash of the settings below; no
+ *                  two lines can have the same name, and it can't have /, \, : or .. in it)
+ *    roots=        roots of the polynomial, separated by ;, each "a" or "a,b" for a + bi
+ *    coefficients= or the polynomial's coefficients, lowest power first, written the same way (its roots
+ *                  are then found with a RootFinder)
+ *    function=     or any function of z, written without spaces, e.g. z^5-3*sin(z)+1 (see Expression; its
+ *                  roots are found the same way)
+ *    k=            see paper (default 1)
+ *    window=       x low, x high, y low, y high (default -2,2,-1,1)
+ *    size=         width x height (default 1920x1080)
+ *    solver=       newton or halley (default newton)
+ *    n=, tol=      maximum iterations and tolerance (default NFPIMethod.N and NFPIMethod.TOL)
+ *    alpha=        alphaFactor (default 10)
+ *    adaptive=     render adaptively with this tolerance (see RenderEngine.sampleAdaptive())
+ *    early=true    stop in ConvergenceDisks (see BasinSampler)
+ *    cycles=true   give up on points caught in cycles early, and color them apart (see IterativeMethod.cycling())
+ *    land=true     stop on pixels already solved (see SolvedPixels)
+ *    symmetry=     false to solve every pixel even if the image is symmetric (default true, see Symmetry;
+ *                  only used without adaptive and land)
+ *    basins=true   also save name.basins (see BasinBuffer)
+ *
+ * Running the same manifest again skips every image that's already there (delete one to render it again).
+ * Images without a name= are named by a hash of their settings, so changing the settings gives a new image.
+ * One with a name= is skipped as long as name.png is there, even if its settings have changed since - rename
+ * or delete it to render the new settings. Images are written under a temporary name and then renamed, so
+ * one that's there is always finished.
+ */
+
+public class BatchRenderer {
+
+  //One line of the manifest.
+  static class Job {
+    int line;
+    String name;
+    List<Complex> roots;
+    List<Complex> coefficients;
+    Expression function;
+    double k = 1;
+    double[] window = {-2, 2, -1, 1};
+    int width = 1920;
+    int height = 1080;
+    boolean halley = false;
+    int n = NFPIMethod.N;
+    double tol = NFPIMethod.TOL;
+    int alpha = 10;
+    int adaptive = -1;
+    boolean early = false;
+    boolean cycles = false;
+    boolean land = false;
+    boolean symmetry = true;
+    boolean basins = false;
+
+    //Read a line of the manifest. Throws IllegalArgumentException if something in it is wrong.
+    static Job parse(String text, int line) {
+      Job job = new Job();
+      job.line = line;
+      for(String setting : text.trim().split("\\s+")) {
+        String[] kv = setting.split("=", 2);
+        if(kv.length < 2) {
+          throw new IllegalArgumentException("Expected key=value, not " + setting);
+        }
+        String v = kv[1];
+        switch(kv[0]) {
+          case "name":
+            //(It's a file name in outputDir, so it can't lead anywhere else.)
+            if(v.isEmpty() || v.contains("/") || v.contains("\\") || v.contains(":") || v.contains("..")) {
+              throw new IllegalArgumentException("name can't be empty or have /, \\, : or .. in it: " + v);
+            }
+            job.name = v;
+            break;
+          case "roots": job.roots = complexList(v); break;
+          case "coefficients": job.coefficients = complexList(v); break;
+          case "function": job.function = Expression.parse(v); break;
+          case "k": job.k = Double.parseDouble(v); break;
+          case "window": {
+            String[] w = v.split(",");
+            if(w.length != 4) {
+              throw new IllegalArgumentException("window needs 4 numbers, not " + v);
+            }
+            for(int i = 0; i < 4; i++) {
+              job.window[i] = Double.parseDouble(w[i]);
+            }
+            break;
+          }
+          case "size": {
+            String[] wh = v.split("x");
+            if(wh.length != 2) {
+              throw new IllegalArgumentException("size has to be width x height, not " + v);
+            }
+            job.width = Integer.parseInt(wh[0]);
+            job.height = Integer.parseInt(wh[1]);
+            break;
+          }
+          case "solver":
+            if(!v.equals("newton") && !v.equals("halley")) {
+              throw new IllegalArgumentException("solver has to be newton or halley, not " + v);
+            }
+            job.halley = v.equals("halley");
+            break;
+          case "n": job.n = Integer.parseInt(v); break;
+          case "tol": job.tol = Double.parseDouble(v); break;
+          case "alpha": job.alpha = Integer.parseInt(v); break;
+          case "adaptive": job.adaptive = Integer.parseInt(v); break;
+          case "early": job.early = Boolean.parseBoolean(v); break;
+          case "cycles": job.cycles = Boolean.parseBoolean(v); break;
+          case "land": job.land = Boolean.parseBoolean(v); break;
+          case "symmetry": job.symmetry = Boolean.parseBoolean(v); break;
+          case "basins": job.basins = Boolean.parseBoolean(v); break;
+          default: throw new IllegalArgumentException("Unknown setting " + kv[0]);
+        }
+      }
+      if((job.roots != null ? 1 : 0) + (job.coefficients != null ? 1 : 0) + (job.function != null ? 1 : 0) != 1) {
+        throw new IllegalArgumentException("Give one of roots, coefficients or function");
+      }
+      if(job.width < 1 || job.height < 1 || (long) job.width * job.height > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Bad size " + job.width + "x" + job.height);
+      }
+      //(The same checks the solvers make, so a bad line is skipped here instead of failing when it's rendered.)
+      if(job.n < 1 || job.n > 65534) {
+        throw new IllegalArgumentException("n has to be between 1 and 65534, not " + job.n);
+      }
+      if(!(job.tol > 0) || Double.isInfinite(job.tol)) {
+        throw new IllegalArgumentException("tol has to be more than 0, not " + job.tol);
+      }
+      for(double w : job.window) {
+        if(Double.isNaN(w) || Double.isInfinite(w)) {
+          throw new IllegalArgumentException("Bad window bound " + w);
+        }
+      }
+      if(!(job.window[0] < job.window[1]) || !(job.window[2] < job.window[3])) {
+        throw new IllegalArgumentException("window has to be x low, x high, y low, y high, with low < high");
+      }
+      if(job.name == null) {
+        job.name = "batch_" + RenderCache.hash(job.settings()).substring(0, 16);
+      }
+      return job;
+    }
+
+    //Everything that affects the image, written out the same way every time.
+    String settings() {
+      StringBuilder s = new StringBuilder();
+      s.append(roots != null ? "roots=" + roots : coefficients != null ? "coefficients=" + coefficients
+                 : "function=" + function);
+      s.append(" k=").append(k);
+      s.append(" window=").append(window[0]).append(',').append(window[1]).append(',').append(window[2])
+        .append(',').append(window[3]);
+      s.append(" size=").append(width).append('x').append(height);
+      s.append(" solver=").append(halley ? "halley" : "newton");
+      s.append(" n=").append(n).append(" tol=").append(tol);
+      s.append(" alpha=").append(alpha).append(" adaptive=").append(adaptive).append(" early=").append(early);
+      //(These two only when they're on, so images named before they existed keep their names. symmetry isn't
+      //here, since it doesn't change the image - it's not used with land, where it would.)
+      if(cycles) {
+        s.append(" cycles=true");
+      }
+      if(land) {
+        s.append(" land=true");
+      }
+      return s.toString();
+    }
+  }
+
+  public static void main(String[] args) {
+    if(args.length < 1) {
+      System.out.println("Usage: java BatchRenderer <manifest> [outputDir] [jobsAtOnce]");
+      return;
+    }
+    File outDir = new File(args.length > 1 ? args[1] : ".");
+    int jobsAtOnce = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+    //Read the whole manifest first, so a mistake in it shows up before hours of rendering.
+    List<Job> jobs = new ArrayList<Job>();
+    //(Two jobs with the same name would write the same file at the same time, so only the first one is kept.)
+    Map<String, Integer> names = new HashMap<String, Integer>();
+    int bad = 0;
+    try(BufferedReader in = new BufferedReader(new FileReader(args[0]))) {
+      String text;
+      int line = 0;
+      while((text = in.readLine()) != null) {
+        line++;
+        if(text.trim().isEmpty() || text.trim().startsWith("#")) {
+          continue;
+        }
+        try {
+          Job job = Job.parse(text, line);
+          Integer first = names.putIfAbsent(job.name, line);
+          if(first != null) {
+            throw new IllegalArgumentException("name " + job.name + " is already used on line " + first);
+          }
+          jobs.add(job);
+        } catch(IllegalArgumentException x) {
+          System.out.println("Line " + line + ": " + x.getMessage() + " (skipped)");
+          bad++;
+        }
+      }
+    } catch(IOException x) {
+      System.out.println(x);
+      return;
+    }
+    if(!outDir.isDirectory() && !outDir.mkdirs()) {
+      System.out.println("Can't make " + outDir);
+      return;
+    }
+
+    //All jobs solve on the engine's pool. jobsAtOnce of them are in progress at any time, so the cores
+    //aren't left idle while a job is coloring or writing its image.
+    RenderEngine engine = new RenderEngine();
+    ExecutorService runner = Executors.newFixedThreadPool(jobsAtOnce);
+    long start = System.nanoTime();
+    List<Future<String>> results = new ArrayList<Future<String>>();
+    for(Job job : jobs) {
+      results.add(runner.submit(() -> render(job, engine, outDir)));
+    }
+    int failed = 0;
+    for(int j = 0; j < jobs.size(); j++) {
+      try {
+        System.out.println(jobs.get(j).name + ": " + results.get(j).get());
+      } catch(Exception x) {
+        Throwable cause = x.getCause() != null ? x.getCause() : x;
+        System.out.println(jobs.get(j).name + " (line " + jobs.get(j).line + ") failed: " + cause);
+        failed++;
+      }
+    }
+    runner.shutdown();
+    System.out.println(jobs.size() + " jobs (" + failed + " failed, " + bad + " bad lines skipped) in "
+                         + (System.nanoTime() - start) / 1000000 + " ms.");
+  }
+
+  //Render job into outDir, unless it's already there. Returns a line about how it went.
+  static String render(Job job, RenderEngine engine, File outDir) throws IOException {
+    File output = new File(outDir, job.name + ".png");
+    if(output.exists()) {
+      return "already done";
+    }
+    ComplexFunction fn;
+    if(job.function != null) {
+      fn = job.function.toFunction(job.k);
+    } else if(job.roots != null) {
+      fn = RootProduct.toFunction(job.roots, job.k);
+    } else {
+      fn = polynomial(job.coefficients).toFunction(job.k);
+    }
+    IterativeMethod solver = job.halley ? new HalleysMethod(fn, job.n, job.tol, job.cycles)
+                                        : new NFPIMethod(fn, job.n, job.tol, job.cycles);
+    Window window = new Window(job.window[0], job.window[1], job.window[2], job.window[3], job.width, job.height);
+    List<Complex> roots = job.roots;
+    if(roots == null) {
+      roots = new RootFinder(solver).find(window, 160, 90, BasinSampler.MATCH_RADIUS);
+    }
+
+    RenderStats stats = new RenderStats(solver, roots.size());
+    long t = System.nanoTime();
+    int[] samples = new int[job.width * job.height];
+    BasinSampler sampler = new BasinSampler(solver, roots, window, job.early, job.land ? samples : null);
+    if(job.adaptive >= 0) {
+      engine.sampleAdaptive(job.width, job.height, sampler, job.adaptive, samples);
+    } else if(job.symmetry && !job.land) {
+      //(Not with land: which pixels have been solved when other orbits land on them depends on it, so the
+      //image would too.)
+      Symmetry.of(solver, roots, window).sample(engine, sampler, samples);
+    } else {
+      engine.sample(job.width, job.height, sampler, samples);
+    }
+    t = stats.stage("solve", t);
+    stats.count(samples);
+
+    BufferedImage img = new BufferedImage(job.width, job.height, BufferedImage.TYPE_INT_ARGB);
+    new Palette(colors(roots.size() + 2, job.name), job.alpha).paint(samples, img);
+    t = stats.stage("color", t);
+    if(job.basins) {
+      BasinBuffer.fromSamples(samples, job.width, job.height).save(new File(outDir, job.name + ".basins"));
+    }
+    //Written under another name first, so a half written image never looks done.
+    File tmp = new File(outDir, job.name + ".png.tmp");
+    ImageIO.write(img, "PNG", tmp);
+    if(!tmp.renameTo(output)) {
+      tmp.delete();
+      throw new IOException("Can't write " + output);
+    }
+    stats.stage("write", t);
+    return stats.summary();
+  }
+
+  //Polynomial with the given coefficients, lowest power first.
+  static Polynomial polynomial(List<Complex> coefficients) {
+    double[] re = new double[coefficients.size()];
+    double[] im = new double[coefficients.size()];
+    for(int p = 0; p < re.length; p++) {
+      re[p] = coefficients.get(p).getA();
+      im[p] = coefficients.get(p).getB();
+    }
+    return new Polynomial(re, im);
+  }
+
+  //"a,b;c;..." as a + bi, c + 0i, ...
+  static List<Complex> complexList(String text) {
+    List<Complex> list = new ArrayList<Complex>();
+    for(String z : text.split(";")) {
+      String[] ab = z.split(",");
+      if(ab.length > 2) {
+        throw new IllegalArgumentException("Expected a or a,b, not " + z);
+      }
+      list.add(new Complex(Double.parseDouble(ab[0]), ab.length > 1 ? Double.parseDouble(ab[1]) : 0));
+    }
+    return list;
+  }
+
+  //count colors: the same approximate rainbow as CIMFromRoots for the first 6, then random ones. The random
+  //ones come from name, so rendering a job again gives the same colors.
+  static int[] colors(int count, String name) {
+    int[] rainbow = {0xFF0000, 0xFF7F00, 0xFFFF00, 0x00FF00, 0x0000FF, 0x8F00FF};
+    int[] col = new int[Math.max(count, rainbow.length)];
+    Random random = new Random(name.hashCode());
+    for(int i = 0; i < col.length; i++) {
+      col[i] = i < rainbow.length ? rainbow[i] : random.nextInt(0x1000000);
+    }
+    return col;
+  }
+}
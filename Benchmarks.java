@@ -0,0 +1,323 @@
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/* Benchmarks for Complex arithmetic, the iterative methods per pixel, and full renders set up the same way
+ * as the application classes. Run with
+ *
+ *    java Benchmarks [degree=3,8,24] [k=1,0.6] [size=480x270,1920x1080] [only=render]
+ *
+ * (all arguments optional). Each benchmark is warmed up before it is timed, and the results are printed as
+ * time per operation, time per pixel where that makes sense, and bytes allocated per operation.
+ * */
+
+public class Benchmarks {
+
+  //Something for every benchmark to write its results to, so the JIT can't throw the work away.
+  static volatile double sink;
+
+  //How long to warm up and then measure each benchmark for.
+  static final long WARMUP_NANOS = 1_000_000_000L;
+  static final long MEASURE_NANOS = 2_000_000_000L;
+
+  //Colors for the render benchmarks (enough for every basin up to degree 63).
+  static final int[] COLORS = new int[64];
+  static {
+    for(int i = 0; i < COLORS.length; i++) {
+      COLORS[i] = (i * 0x3F1F7) & 0xFFFFFF;
+    }
+  }
+
+  //One run of a benchmark. Returns something computed from the results.
+  interface Bench {
+    double run();
+  }
+
+  public static void main(String[] args) {
+    int[] degrees = {3, 8, 24};
+    double[] ks = {1, 0.6};
+    int[][] sizes = {{480, 270}, {1920, 1080}};
+    String only = "";
+    for(String arg : args) {
+      String[] kv = arg.split("=", 2);
+      if(kv.length < 2) {
+        System.out.println("Expected key=value, not " + arg);
+        System.out.println("Usage: java Benchmarks [degree=3,8,24] [k=1,0.6] [size=480x270,1920x1080] [only=render]");
+        return;
+      }
+      String[] vals = kv[1].split(",");
+      if(kv[0].equals("degree")) {
+        degrees = new int[vals.length];
+        for(int i = 0; i < vals.length; i++) degrees[i] = Integer.parseInt(vals[i]);
+      } else if(kv[0].equals("k")) {
+        ks = new double[vals.length];
+        for(int i = 0; i < vals.length; i++) ks[i] = Double.parseDouble(vals[i]);
+      } else if(kv[0].equals("size")) {
+        sizes = new int[vals.length][];
+        for(int i = 0; i < vals.length; i++) {
+          String[] wh = vals[i].split("x");
+          if(wh.length != 2) {
+            System.out.println("Sizes are width x height, like 480x270, not " + vals[i]);
+            return;
+          }
+          sizes[i] = new int[] {Integer.parseInt(wh[0]), Integer.parseInt(wh[1])};
+        }
+      } else if(kv[0].equals("only")) {
+        only = kv[1];
+      } else {
+        System.out.println("Unknown argument " + arg);
+        return;
+      }
+    }
+
+    System.out.println(String.format(Locale.ROOT, "%-16s %-28s %14s %12s %12s",
+                                     "benchmark", "params", "ns/op", "ns/pixel", "B/op"));
+    if("complex".startsWith(only)) {
+      complexBenchmarks();
+    }
+    for(int degree : degrees) {
+      for(double k : ks) {
+        if("solve".startsWith(only)) {
+          solveBenchmarks(degree, k);
+        }
+        for(int[] size : sizes) {
+          if("render".startsWith(only)) {
+            renderBenchmarks(degree, k, size[0], size[1]);
+          }
+        }
+      }
+    }
+  }
+
+  //Complex.times(), over() and pow() on a spread of numbers.
+  static void complexBenchmarks() {
+    Complex[] zs = new Complex[1024];
+    for(int i = 0; i < zs.length; i++) {
+      zs[i] = new Complex(Math.cos(i) * (1 + i % 7), Math.sin(i * 0.5) * (1 + i % 5));
+    }
+    measure("complex.times", "", zs.length, 0, () -> {
+      double s = 0;
+      for(int i = 1; i < zs.length; i++) s += zs[i].times(zs[i - 1]).getA();
+      return s;
+    });
+    measure("complex.over", "", zs.length, 0, () -> {
+      double s = 0;
+      for(int i = 1; i < zs.length; i++) s += zs[i].over(zs[i - 1]).getA();
+      return s;
+    });
+    measure("complex.pow", "i=3", zs.length, 0, () -> {
+      double s = 0;
+      for(int i = 0; i < zs.length; i++) s += zs[i].pow(3).getA();
+      return s;
+    });
+  }
+
+  //Newton's and Halley's method per pixel, on a grid of starting points in -2 < x < 2, -1 < y < 1.
+  static void solveBenchmarks(int degree, double k) {
+    ComplexFunction fn = rootsOfUnity(degree).toFunction(k);
+    NFPIMethod newton = new NFPIMethod(fn);
+    HalleysMethod halley = new HalleysMethod(fn);
+    BatchNewton batch = new BatchNewton(fn);
+    //The same function typed in as an Expression and compiled (not turned back into a Polynomial), to
+    //compare the generated code with Polynomial's Horner's rule.
+    NFPIMethod compiled = new NFPIMethod(new ComplexFunction(null, null, null,
+                                                             Expression.parse("z^" + degree + " - 1").compile(), k));
+    //And written with HyperDual, for f, f' and f'' in one pass through objects.
+    HalleysMethod dual = new HalleysMethod(HyperDual.toFunction(z -> z.pow(degree).minus(1), k));
+    int w = 256;
+    int h = 144;
+    double[] xs = new double[w];
+    for(int i = 0; i < w; i++) {
+      xs[i] = ((double)i/w)*4 - 2;
+    }
+    String params = "degree=" + degree + " k=" + k;
+    SolveResult out = new SolveResult();
+
+    measure("newton.complex", params, w*h, w*h, () -> {
+      double s = 0;
+      for(int j = 0; j < h; j++) {
+        for(int i = 0; i < w; i++) s += newton.solve(new Complex(xs[i], y(j, h))).getIterations();
+      }
+      return s;
+    });
+    measure("newton.double", params, w*h, w*h, () -> {
+      double s = 0;
+      for(int j = 0; j < h; j++) {
+        for(int i = 0; i < w; i++) {
+          newton.solve(xs[i], y(j, h), out);
+          s += out.getIterations();
+        }
+      }
+      return s;
+    });
+    measure("newton.compiled", params, w*h, w*h, () -> {
+      double s = 0;
+      for(int j = 0; j < h; j++) {
+        for(int i = 0; i < w; i++) {
+          compiled.solve(xs[i], y(j, h), out);
+          s += out.getIterations();
+        }
+      }
+      return s;
+    });
+    measure("newton.batch", params, w*h, w*h, () -> {
+      double s = 0;
+      for(int j = 0; j < h; j++) {
+        BatchNewton.Row row = batch.solveRow(xs, y(j, h), 0, w);
+        for(int i = 0; i < w; i++) s += row.iterations[i];
+      }
+      return s;
+    });
+    measure("halley.complex", params, w*h, w*h, () -> {
+      double s = 0;
+      for(int j = 0; j < h; j++) {
+        for(int i = 0; i < w; i++) s += halley.solve(new Complex(xs[i], y(j, h))).getIterations();
+      }
+      return s;
+    });
+    measure("halley.double", params, w*h, w*h, () -> {
+      double s = 0;
+      for(int j = 0; j < h; j++) {
+        for(int i = 0; i < w; i++) {
+          halley.solve(xs[i], y(j, h), out);
+          s += out.getIterations();
+        }
+      }
+      return s;
+    });
+    measure("halley.dual", params, w*h, w*h, () -> {
+      double s = 0;
+      for(int j = 0; j < h; j++) {
+        for(int i = 0; i < w; i++) {
+          dual.solve(xs[i], y(j, h), out);
+          s += out.getIterations();
+        }
+      }
+      return s;
+    });
+  }
+
+  //Full renders into a BufferedImage (not counting writing the PNG): CIMFromRoots with the degree
+  //roots of unity, and ComplexImageMaker/HalleyCImageMaker with their own z^3 - z, all through a
+  //BasinSampler and Palette the same way the application classes do it.
+  static void renderBenchmarks(int degree, double k, int width, int height) {
+    RenderEngine engine = new RenderEngine();
+    String params = "degree=" + degree + " k=" + k + " " + width + "x" + height;
+    ArrayList<Complex> roots = new ArrayList<Complex>();
+    Polynomial poly = rootsOfUnity(degree, roots);
+    NFPIMethod newton = new NFPIMethod(poly.toFunction(k));
+    Window window = new Window(-2, 2, -1, 1, width, height);
+    measure("render.roots", params, 1, width*height, () -> render(engine, newton, roots, window, "full"));
+    measure("render.adaptive", params, 1, width*height, () -> render(engine, newton, roots, window, "adaptive"));
+    measure("render.progress", params, 1, width*height,
+            () -> render(engine, newton, roots, window, "progressive"));
+    measure("render.early", params, 1, width*height, () -> render(engine, newton, roots, window, "early"));
+
+    //The application classes' z^3 - z doesn't depend on the degree, so only do it once.
+    if(degree == 3) {
+      ArrayList<Complex> cubicRoots = new ArrayList<Complex>();
+      cubicRoots.add(new Complex(1, 0));
+      cubicRoots.add(new Complex(0, 0));
+      cubicRoots.add(new Complex(-1, 0));
+      ComplexFunction cubic = new Polynomial(0, -1, 0, 1).toFunction(k);
+      params = "k=" + k + " " + width + "x" + height;
+      NFPIMethod cubicNewton = new NFPIMethod(cubic);
+      measure("render.newton", params, 1, width*height,
+              () -> render(engine, cubicNewton, cubicRoots, window, "full"));
+      HalleysMethod halley = new HalleysMethod(cubic);
+      Window halleyWindow = new Window(-1, 1, -0.5, 0.5, width, height);
+      measure("render.halley", params, 1, width*height,
+              () -> render(engine, halley, cubicRoots, halleyWindow, "full"));
+
+      //z^3 - 2z + 2, where (for k = 1) Newton's method has an attracting cycle between 0 and 1, with N = 200,
+      //without and with cycle detection.
+      ComplexFunction cycling = new Polynomial(2, -2, 0, 1).toFunction(k);
+      NFPIMethod plain = new NFPIMethod(cycling, 200, NFPIMethod.TOL);
+      NFPIMethod detecting = new NFPIMethod(cycling, 200, NFPIMethod.TOL, true);
+      ArrayList<Complex> cyclingRoots = new ArrayList<Complex>(new RootFinder(plain).find(window, 160, 90,
+                                                                                          BasinSampler.MATCH_RADIUS));
+      measure("render.nocycles", params, 1, width*height,
+              () -> render(engine, plain, cyclingRoots, window, "full"));
+      measure("render.cycles", params, 1, width*height,
+              () -> render(engine, detecting, cyclingRoots, window, "full"));
+    }
+  }
+
+  //Render window with solver, solving every pixel ("full"), adaptively with tolerance 0 ("adaptive"), in
+  //progressive passes without making the previews ("progressive"), or stopping in ConvergenceDisks ("early").
+  static double render(RenderEngine engine, IterativeMethod solver, ArrayList<Complex> roots, Window window,
+                       String mode) {
+    int width = window.getWidth();
+    int height = window.getHeight();
+    BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    BasinSampler sampler = new BasinSampler(solver, roots, window, mode.equals("early"));
+    Palette palette = new Palette(COLORS, 10);
+    if(mode.equals("adaptive")) {
+      int[] samples = new int[width * height];
+      engine.sampleAdaptive(width, height, sampler, 0, samples);
+      palette.paint(samples, img);
+    } else if(mode.equals("progressive")) {
+      int[] samples = new int[width * height];
+      engine.sampleProgressive(width, height, sampler, samples, (step, s) -> true);
+      palette.paint(samples, img);
+    } else {
+      engine.render(img, palette.shader(sampler));
+    }
+    return img.getRGB(width / 2, height / 2);
+  }
+
+  //Y coordinate of row j of h in -1 < y < 1
+  static double y(int j, int h) {
+    return (1 - ((double)j/h))*2 - 1;
+  }
+
+  static Polynomial rootsOfUnity(int degree) {
+    return rootsOfUnity(degree, new ArrayList<Complex>());
+  }
+
+  //z^degree - 1, multiplied out from its roots (which are also added to roots).
+  static Polynomial rootsOfUnity(int degree, ArrayList<Complex> roots) {
+    for(int i = 0; i < degree; i++) {
+      roots.add(new Complex(Math.cos(2*Math.PI*i/degree), Math.sin(2*Math.PI*i/degree)));
+    }
+    return Polynomial.fromRoots(roots);
+  }
+
+  //Warm up, then time bench and print the results. ops is the number of operations in one run and
+  //pixels the number of pixels (0 if it isn't a per-pixel benchmark).
+  static void measure(String name, String params, int ops, int pixels, Bench bench) {
+    long end = System.nanoTime() + WARMUP_NANOS;
+    while(System.nanoTime() < end) {
+      sink = bench.run();
+    }
+    long runs = 0;
+    long bytes = -allocatedBytes();
+    long start = System.nanoTime();
+    end = start + MEASURE_NANOS;
+    long now;
+    do {
+      sink = bench.run();
+      runs++;
+      now = System.nanoTime();
+    } while(now < end);
+    bytes += allocatedBytes();
+    double nanosPerRun = (double)(now - start) / runs;
+    System.out.println(String.format(Locale.ROOT, "%-16s %-28s %14.1f %12s %12.1f", name, params,
+                                     nanosPerRun / ops,
+                                     pixels > 0 ? String.format(Locale.ROOT, "%.1f", nanosPerRun / pixels) : "-",
+                                     (double)bytes / runs / ops));
+  }
+
+  //Bytes allocated so far by all live threads (renders allocate on the pool's threads, not this one).
+  static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long total = 0;
+    for(long b : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if(b > 0) {
+        total += b;
+      }
+    }
+    return total;
+  }
+}
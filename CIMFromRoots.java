@@ -8,9 +8,9 @@
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import javax.imageio.ImageIO;
 import java.lang.Math;
-import java.util.function.UnaryOperator;
 import java.util.ArrayList;
 import java.util.Scanner;
 
@@ -32,6 +32,63 @@ public class CIMFromRoots {
     int ImageYDim = 1080;
     //I leave these preset so the user doesn't enter like 90 roots and try to make a 2000x2000 image
     
+    //Set adaptive to true to skip solving the insides of areas where every pixel converges to the same
+    //root in the same number of iterations (give or take adaptiveTolerance). Much faster for images with
+    //big smooth areas, and with adaptiveTolerance = 0 the image is almost always exactly the same.
+    boolean adaptive = false;
+    int adaptiveTolerance = 0;
+    
+    //Set progressive to true to render at 1/16, 1/4, 1/2 and then full resolution, writing each pass
+    //over the output file as it finishes. The first pass takes a tiny fraction of the time, so a window
+    //that isn't interesting can be spotted (and the program stopped) right away.
+    boolean progressive = false;
+    
+    //With useSymmetry, images that are symmetric are only partly solved and the rest is filled in by mirroring
+    //or turning it (see Symmetry): half the image when the roots are all real or come in conjugate pairs and the
+    //window is centered on the real axis, or as little as an eighth for roots like those of z^4 - 1 on a square
+    //window centered on 0. Used when adaptive, progressive and landOnSolved are all false (landing depends on
+    //which pixels have been solved, so it would change the image).
+    boolean useSymmetry = true;
+    
+    //Set earlyExit to true to stop iterating as soon as a point is close enough to a root that it's certain
+    //to end up there (see ConvergenceDisks), instead of waiting for the steps to get smaller than TOL. Faster,
+    //and every pixel is in the same basin, but the iteration counts (so the alpha bands) come out lower.
+    boolean earlyExit = false;
+    
+    //Set detectCycles to true to give up on points as soon as they're caught going round a cycle instead of
+    //iterating them to maxIterations (see IterativeMethod.cycling()) - for functions with attracting cycles,
+    //like z^3 - 2z + 2, especially with a big maxIterations (it costs about 10% when there aren't any). They're
+    //drawn in their own "cycle" color (the one after the extra basin's) instead of the extra basin's.
+    boolean detectCycles = false;
+    
+    //Set landOnSolved to true to stop iterating as soon as a point lands on a pixel that's already been solved,
+    //and take that pixel's basin (see SolvedPixels). Much faster for small k and a big maxIterations, where the
+    //points wander a long way before they settle. Only works for Polynomials, and isn't quite exact: a pixel in
+    //every few thousand can end up in a different basin.
+    boolean landOnSolved = false;
+    
+    //Set the iteration budget: give up on a point after maxIterations, and count it as converged once a step
+    //is smaller than tolerance. The stats printed after each render (see printStats) show how many pixels
+    //ran out of iterations, which is the thing to look at before raising maxIterations.
+    int maxIterations = NFPIMethod.N;
+    double tolerance = NFPIMethod.TOL;
+    
+    //Set printStats to true to print a histogram of iterations per pixel, the number of pixels that didn't
+    //converge, the time each stage took, pixels per second and a suggested alphaFactor after each render
+    //(see RenderStats).
+    boolean printStats = true;
+    
+    //Finished renders are kept in cacheDir (up to cacheBytes of them), so rendering the same roots, k and
+    //window again - with different colors, say - just reads them back instead of solving anything.
+    boolean useCache = true;
+    File cacheDir = new File("render_cache");
+    long cacheBytes = 1L << 30;
+    
+    //Set saveBasins to true to also save the basin and iteration count of every pixel next to the image,
+    //as imgN.basins (see BasinBuffer). Run Recolor on it to color the image differently without solving it
+    //again.
+    boolean saveBasins = true;
+    
     //User must enter at least one root. Form is h + li; h and l entered on separate lines, then combined
     //into a Complex object.
     ArrayList<Complex> basinArray = new ArrayList<Complex>();
@@ -63,40 +120,15 @@ public class CIMFromRoots {
     }
     
     
-    //Set function and its derivative based on enered roots. 
-    //The (check Complex() for complex arithmetic)
-    UnaryOperator<Complex> f = (a) -> { 
-      Complex prod = new Complex(1, 0);
-      for(int i = 0; i < basinArray.size(); i++) {
-        prod = prod.times(a.minus(basinArray.get(i)));
-      }
-      return prod;
-    };
-    //Derivative, using product rule. (Weirdly similar to part of the calculation of a Lagrangian...)
-    //The derivative of (x-a) is 1, so basically we just knock one root out of the total product and sum over all
-    //the roots.
-    UnaryOperator<Complex> fp = (a) -> {
-      Complex sum = new Complex(0, 0);
-      Complex prod = new Complex(1, 0);
-      for(int i = 0; i < basinArray.size(); i++) {
-        for(int j = 0; j < basinArray.size(); j++) {
-          if(j != i) {
-            prod = prod.times(a.minus(basinArray.get(j)));
-          }
-        }
-        sum = sum.plus(prod);
-        prod.setDoubles(1, 0);
-      }
-      return sum;
-    };
-    
-    Complex.setF(f);
-    Complex.setFPrime(fp);
+    //Set function and its derivatives based on entered roots. Up to Expression.MAX_MULTIPLIED_DEGREE roots
+    //are multiplied out into coefficients once, and then f, f' and f'' all come from one pass of Horner's
+    //rule (see Polynomial). More roots than that would lose too much precision multiplied out, so they're
+    //kept as a product (see RootProduct), which is just as quick per root but doesn't get BatchNewton.
     
     //See paper for explanation of K.
     System.out.println("Set k (use 1 as default!):");
     double kval = userIn.nextDouble();
-    Complex.setK(kval);
+    NFPIMethod solver = new NFPIMethod(RootProduct.toFunction(basinArray, kval), maxIterations, tolerance, detectCycles);
         
     //Set window bounds. Note that y = 0 is actually the top edge of the image (not the bottom).
     //I iterate through the Y coordinates from ImageYDim to 0 to compensate for this.
@@ -110,7 +142,8 @@ public class CIMFromRoots {
     double WindowYHiBound = userIn.nextDouble();
     
     //Set alphaFactor so that the maximum iterations from NFPIMethod.java times the 
-    //alphaFactor is approximately 255 (the maximum opaqueness), or adjust to suit.
+    //alphaFactor is approximately 255 (the maximum opaqueness), or adjust to suit. The stats
+    //printed after a render suggest one from the iterations the pixels actually took.
     int alphaFactor = 10;
     
     //Done with scanner now!
@@ -118,17 +151,16 @@ public class CIMFromRoots {
     
     //Define some color integers to use in the rendered image. After the 6th color
     //they are randomly generated. 
-    BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
     int colSize = 0;
     
-    //(Set random colors until basinArray is exhausted. Set minimum colors to 6 to avoid
-    // array out of bounds exception.)
+    //(Set random colors until basinArray is exhausted, plus one for the extra basin and one for
+    // cycles. Set minimum colors to 6 to avoid array out of bounds exception.)
     
     //These are currently set to an approximate rainbow. 
-    if(basinArray.size() < 6) {
+    if(basinArray.size() < 5) {
       colSize = 6; 
     } else {
-      colSize = basinArray.size() + 1;
+      colSize = basinArray.size() + 2;
     }
     
     int[] col = new int[colSize];
@@ -172,47 +204,97 @@ public class CIMFromRoots {
     
     
     
-    //Initialize a Complex object to represent each pixel.
-    Complex pixel = new Complex(0,0);
-    //Initialize color integer.
-    int thisColor = 0;
-    //For each pixel in the image...
-    for(int i = ImageXDim-1; i > -1; i--) {
-      for(int j = ImageYDim-1; j > -1; j--) {
-        //Set pixel coordinates based on window dimensions. (Note Y coordinate is reversed because
-        //the top of the image is actually y=0, not y=WindowYHiBound.)
-        pixel.setDoubles( ((double)i/ImageXDim)*(WindowXHiBound-WindowXLowBound) + WindowXLowBound,
-                         ((1 - (double)j/ImageYDim))*(WindowYHiBound-WindowYLowBound) + WindowYLowBound);
-        //Figure out which color to set the pixel to.
-        thisColor = col[testBasin(pixel, basinArray)];
-        //Then set the alpha based on how many iterations it took for the pixel to converge.
-        int alpha;
-        if(NFPIMethod.i * alphaFactor <= 255) {
-          alpha = NFPIMethod.i * alphaFactor;
-        } else {
-          //Just in case I set the alphaFactor badly and get a number over 255.
-          alpha = 255;
-        }
-        //Add alpha value to the color by bit-shifting it and combining the binary numbers
-        //with a bitwise OR operation. 
-        thisColor = ( alpha << 24) | thisColor;
-        //Set the pixel to the color, and move on to the next pixel.
-        img.setRGB(i, j, thisColor);
-      }
-    }
+    //Work out which basin each pixel of the window is in and how many iterations it took, and color
+    //it with col[] and alphaFactor. The tiles are spread over all cores by the RenderEngine.
+    Window window = new Window(WindowXLowBound, WindowXHiBound, WindowYLowBound, WindowYHiBound,
+                               ImageXDim, ImageYDim);
+    //(With landOnSolved, the sampler looks up the pixels solved so far in the array they're going into.)
+    int[] solved = landOnSolved ? new int[ImageXDim * ImageYDim] : null;
+    BasinSampler sampler = new BasinSampler(solver, basinArray, window, earlyExit, solved);
+    Symmetry symmetry = useSymmetry && !landOnSolved ? Symmetry.of(solver, basinArray, window) : null;
+    Palette palette = new Palette(col, alphaFactor);
+    RenderEngine engine = new RenderEngine();
     
-    //Write the BufferedImage to file.
+    //Find an unused file name, then render the image and write it to file.
     int k = 0;
     File output = new File("img" + k + ".png");
     while(output.exists()) {
       k++;
       output = new File("img" + k + ".png");
     }
+    RenderStats stats = new RenderStats(solver, basinArray.size());
+    long t = System.nanoTime();
     try {
+      //Look for this render in the cache first.
+      int[] samples = null;
+      RenderCache cache = null;
+      String key = null;
+      if(useCache) {
+        cache = new RenderCache(cacheDir, cacheBytes);
+        key = RenderCache.key(solver, basinArray, window, adaptive && !progressive ? adaptiveTolerance : -1,
+                               earlyExit, landOnSolved);
+        samples = cache.get(key, ImageXDim, ImageYDim);
+        t = stats.stage("cache", t);
+      }
+      if(samples != null) {
+        System.out.println("Found in the render cache, nothing to solve.");
+      } else {
+        samples = solved != null ? solved : new int[ImageXDim * ImageYDim];
+        if(progressive) {
+          //Write each pass over the output file (the last one is written below with the rest). If a preview
+          //can't be written, the render carries on without any more of them.
+          final File out = output;
+          final boolean[] previews = {true};
+          long start = System.nanoTime();
+          boolean finished = engine.sampleProgressive(ImageXDim, ImageYDim, sampler, samples, (step, s) -> {
+            if(step > 1 && previews[0]) {
+              try {
+                ImageIO.write(palette.preview(s, ImageXDim, ImageYDim, step), "PNG", out);
+              } catch(Exception x) {
+                System.out.println("Can't write previews, carrying on without them: " + x);
+                previews[0] = false;
+              }
+            }
+            System.out.println("1/" + step + " resolution done after " + (System.nanoTime() - start) / 1000000
+                                 + " ms.");
+            return true;
+          });
+          //(Pixels that weren't solved are still UNSOLVED, which mustn't be cached or painted.)
+          if(!finished) {
+            throw new IOException("Progressive render stopped before the last pass");
+          }
+        } else if(adaptive) {
+          long skipped = engine.sampleAdaptive(ImageXDim, ImageYDim, sampler, adaptiveTolerance, samples);
+          System.out.println("Filled in " + skipped + " of " + (long)ImageXDim * ImageYDim + " pixels without solving.");
+        } else if(symmetry != null && symmetry.order() > 1) {
+          long count = symmetry.sample(engine, sampler, samples);
+          System.out.println("Solved " + count + " of " + (long)ImageXDim * ImageYDim + " pixels and filled in the"
+                               + " rest by symmetry (" + symmetry + ").");
+        } else {
+          engine.sample(ImageXDim, ImageYDim, sampler, samples);
+        }
+        t = stats.stage("solve", t);
+        if(cache != null) {
+          cache.put(key, ImageXDim, ImageYDim, samples);
+          t = stats.stage("cache", t);
+        }
+      }
+      stats.count(samples);
+      BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+      palette.paint(samples, img);
+      t = stats.stage("color", t);
       ImageIO.write(img, "PNG", output);
+      t = stats.stage("write", t);
+      if(saveBasins) {
+        BasinBuffer.fromSamples(samples, ImageXDim, ImageYDim).save(new File("img" + k + ".basins"));
+        stats.stage("basins", t);
+      }
     } catch(Exception x) {
       System.out.println(x);
     }
+    if(printStats) {
+      System.out.print(stats.report());
+    }
     //Give some output with dimensions and window of the image as well as polynomial used.
     System.out.println(ImageXDim + " x " + ImageYDim + " image output displaying ");
     System.out.println(WindowXLowBound + " < x < " + WindowXHiBound + ", " + WindowYLowBound + " < y < "
@@ -223,24 +305,10 @@ public class CIMFromRoots {
     }
     System.out.println(")^" + kval);
     System.out.println("Image saved as img" + k + ".png.");
-    
-  }
-  
-  public static int testBasin(Complex a, ArrayList<Complex> basinArray) {   
-    
-    //Run the iteration, and compare to each basin. 
-    Complex aIter = NFPIMethod.nfpi(a);
-    for(int i = 0; i < basinArray.size(); i++) {
-      if( aIter.minus(basinArray.get(i)).abs() < 0.01) {
-        //Return the number of the root that it matched.
-        return i;
-      }
+    if(saveBasins) {
+      System.out.println("Basins saved as img" + k + ".basins.");
     }
-    //If a match isn't found, return the length of the array - which is what the next
-    //root would be if there was one. Thus all points that don't converge, cyclical 
-    //patterns that don't end up at one root or another, etc end up colored with an 
-    //"extra" color (for the most part). 
-    return basinArray.size();   
+    
   }
   
 }
\ No newline at end of file
@@ -1,8 +1,7 @@
 import java.lang.Math;
-import java.util.function.UnaryOperator;
 
-/* Class representing complex numbers with basic arithmetic operations and support for a function and its derivatives
- * for use in Newton's or Halley's method.
+/* Class representing complex numbers with basic arithmetic operations, and Newton's and Halley's steps
+ * for a function and its derivatives (held in a ComplexFunction).
  * */
 
 public class Complex {
@@ -11,13 +10,6 @@ public class Complex {
   private double a;
   private double b;
   
-  protected static UnaryOperator<Complex> f;
-  protected static UnaryOperator<Complex> fprime;
-  protected static double k;
-  
-  //(Used in Halley's Method)
-  protected static UnaryOperator<Complex> f2prime;
-  
   //Initialize at 0 + 0i.
   public Complex() {
     a = 0;
@@ -129,25 +121,6 @@ public class Complex {
     return (this.a + " + " + this.b + "i");
   }
   
-  //Set f() function from application by passing in a UnaryOperator<Complex>
-  public static void setF(UnaryOperator<Complex> f){
-    Complex.f = f;
-  }
-  
-  //Perform some function with the complex number this is called on as "x"
-  public Complex f() {
-    return f.apply(this);
-  }
- 
-  public static void setFPrime(UnaryOperator<Complex> fprime) {
-    Complex.fprime = fprime;
-  }
-  
-  //Derivative of above function
-  public Complex fprime() {
-    return fprime.apply(this);
-  }
-  
   //Raise a complex number to some power i (for positive, integer i) by repeated
   //multiplication. 
   public Complex pow(int i) {
@@ -158,29 +131,20 @@ public class Complex {
     return base;
   }
   
-  public static void setK(double j) {
-    Complex.k = j;
-  }
-  
-  //Newton's formula
-  public Complex g() {
+  //Newton's formula for the function fn
+  public Complex g(ComplexFunction fn) {
     //Factor to "stretch" the fractal parts by - this is equivalent to taking the 
     //kth root of the entire function f(). 
-    return this.minus( (this.f().over(this.fprime())).times(1/k) );
-  }
-  
-  public static void setF2Prime(UnaryOperator<Complex> r) {
-    Complex.f2prime = r;
-  }
-  
-  public Complex f2prime() {
-    return f2prime.apply(this);
+    return this.minus( (fn.f(this).over(fn.fprime(this))).times(1/fn.getK()) );
   }
   
   //Halley's Method: a higher-order root finding method used when f''(x) is known
-  public Complex h() {
-    return this.minus( (this.f().times(2).times(this.fprime())  )
-                 .over( this.fprime().pow(2).times(2).minus( (this.f().times(this.f2prime())))));
+  public Complex h(ComplexFunction fn) {
+    //(f and f' are each used twice, so only work them out once.)
+    Complex f = fn.f(this);
+    Complex fp = fn.fprime(this);
+    return this.minus( (f.times(2).times(fp)  )
+                 .over( fp.pow(2).times(2).minus( (f.times(fn.f2prime(this))))));
   }
     
 }
@@ -0,0 +1,10 @@
+/* A function and its derivatives evaluated on raw doubles instead of Complex objects, so the iterative
+ * methods can run without creating any objects. Implementations must not keep state between calls.
+ * */
+
+public interface ComplexEvaluator {
+  
+  //Evaluate at z = re + im*i and write f(z) to out[0], out[1], f'(z) to out[2], out[3] and, if order is 2,
+  //f''(z) to out[4], out[5]. out has room for all six.
+  void evaluate(double re, double im, int order, double[] out);
+}
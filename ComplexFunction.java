@@ -0,0 +1,81 @@
+import java.util.function.UnaryOperator;
+
+/* A function on complex numbers together with its derivatives and the "k" used to stretch Newton's method.
+ * Used by NFPIMethod and HalleysMethod. Nothing in here changes after construction, so one ComplexFunction
+ * can be shared by every thread of a render, and renders of different functions don't interfere.
+ * 
+ * Optionally also holds a ComplexEvaluator computing the same function on doubles, which the iterative
+ * methods use instead of f, fprime and f2prime to avoid creating objects.
+ * */
+
+public class ComplexFunction {
+  
+  private final UnaryOperator<Complex> f;
+  private final UnaryOperator<Complex> fprime;
+  //(Used in Halley's Method, may be null for Newton's method)
+  private final UnaryOperator<Complex> f2prime;
+  //"k" is described in the paper - Newton's method uses f(x)^k instead of f(x), so k=1 gives original Newton's method.
+  private final double k;
+  //(May be null, in which case the iterative methods fall back to the Complex lambdas)
+  private final ComplexEvaluator evaluator;
+  //Text that says exactly what the function is, for naming renders of it (see RenderCache.key()), or null
+  //if there isn't any (lambdas can't be compared).
+  private final String source;
+  
+  //A function and its derivative, enough for Newton's method.
+  public ComplexFunction(UnaryOperator<Complex> f, UnaryOperator<Complex> fprime, double k) {
+    this(f, fprime, null, null, k);
+  }
+  
+  //A function and its first two derivatives, for Halley's method.
+  public ComplexFunction(UnaryOperator<Complex> f, UnaryOperator<Complex> fprime, UnaryOperator<Complex> f2prime,
+                         double k) {
+    this(f, fprime, f2prime, null, k);
+  }
+  
+  //Any of the above plus an evaluator for the same function on doubles. 
+  public ComplexFunction(UnaryOperator<Complex> f, UnaryOperator<Complex> fprime, UnaryOperator<Complex> f2prime,
+                         ComplexEvaluator evaluator, double k) {
+    this(f, fprime, f2prime, evaluator, k, null);
+  }
+  
+  //Any of the above, plus source saying exactly which function it is (the same text has to mean the same
+  //function, e.g. an Expression written back out).
+  public ComplexFunction(UnaryOperator<Complex> f, UnaryOperator<Complex> fprime, UnaryOperator<Complex> f2prime,
+                         ComplexEvaluator evaluator, double k, String source) {
+    this.f = f;
+    this.fprime = fprime;
+    this.f2prime = f2prime;
+    this.evaluator = evaluator;
+    this.k = k;
+    this.source = source;
+  }
+  
+  //Evaluate the function at z
+  public Complex f(Complex z) {
+    return f.apply(z);
+  }
+  
+  //Derivative of above function
+  public Complex fprime(Complex z) {
+    return fprime.apply(z);
+  }
+  
+  //Second derivative
+  public Complex f2prime(Complex z) {
+    return f2prime.apply(z);
+  }
+  
+  public double getK() {
+    return k;
+  }
+  
+  public ComplexEvaluator getEvaluator() {
+    return evaluator;
+  }
+  
+  //(May be null, see above)
+  public String getSource() {
+    return source;
+  }
+}
@@ -9,7 +9,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import javax.imageio.ImageIO;
 import java.lang.Math;
-import java.util.function.UnaryOperator;
 import java.util.ArrayList;
 
 /*Instructions for Use
@@ -18,12 +17,15 @@ import java.util.ArrayList;
  * Things you should set to use the program: 
  * 1. Set ImageXDim and ImageYDim to determine size of finished image. For polynomials of degree <6 or so, a full
  *    1920x1080 image does not take too long.)
- * 2. Set f and fp to some function and its derivative. Consult Complex() for possible operators to use - 
- *    .pow() and .sin() and .cos() methods are included for complex numbers. 
+ * 2. Set the coefficients of a polynomial, or write some other function with HyperDual, which works
+ *    out its derivative along with it. Consult HyperDual for possible operators to use - .pow(), .sin(),
+ *    .cos() and .exp() methods are included, the same as for Complex numbers. 
  * 3. In basinArray, set all expected roots of f() by using basinArray.add(new Complex(a, b)) for a+bi.
  *    (Wolfram Alpha can be used to determine complex roots of a function.)
  * 4. Set k if desired. (See paper or short explanation below for what this is.)
  * 
+ * Or skip 2 and 3 and give the function as an argument instead: java ComplexImageMaker "z^5 - 3*sin(z) + 1"
+ * 
  * Then run the application. Image will be output into the working directory
  * as img.png. 
  */
@@ -32,21 +34,80 @@ public class ComplexImageMaker {
   
   public static void main(String[] args) {
     
+    //For very large images (like prints), set streamOutput to true. The PNG is then rendered and written
+    //a band of rows at a time, so the whole image never has to fit in memory.
+    boolean streamOutput = false;
+    
+    //For renders too big to finish in one go, set tiled to true. The basins are then solved into a tile
+    //store file (img_<hash>.tiles, named after the function, window and size - see TileStore) and the PNG
+    //is made from that at the end. If the render crashes or is stopped, just run it again with the same
+    //settings and it carries on from the tiles already done. Delete the .tiles file once you're happy.
+    //Only for Polynomials and typed-in functions, since lambdas can't be told apart to pick the right file.
+    boolean tiled = false;
+    
+    //Set adaptive to true to skip solving the insides of areas where every pixel converges to the same
+    //root in the same number of iterations (give or take adaptiveTolerance). Much faster for images with
+    //big smooth areas, and with adaptiveTolerance = 0 the image is almost always exactly the same.
+    boolean adaptive = false;
+    int adaptiveTolerance = 0;
+    
+    //Set earlyExit to true to stop iterating as soon as a point is close enough to a root that it's certain
+    //to end up there (see ConvergenceDisks). Only works for Polynomials. Every pixel is in the same basin, but
+    //the iteration counts come out lower, so you may want a bigger alphaFactor.
+    boolean earlyExit = false;
+    
+    //Set detectCycles to true to give up on points as soon as they're caught going round a cycle instead of
+    //iterating them to maxIterations (see IterativeMethod.cycling()) - for functions with attracting cycles,
+    //like z^3 - 2z + 2, especially with a big maxIterations (it costs about 10% when there aren't any). They're
+    //drawn in their own "cycle" color (the one after the extra basin's) instead of the extra basin's.
+    boolean detectCycles = false;
+    
+    //Set landOnSolved to true to stop iterating as soon as a point lands on a pixel that's already been solved,
+    //and take that pixel's basin (see SolvedPixels). Much faster for small k and a big maxIterations, where the
+    //points wander a long way before they settle. Only works for Polynomials, and isn't quite exact: a pixel in
+    //every few thousand can end up in a different basin. Not used for tiled or
+    //streamOutput renders, which don't keep every pixel.
+    boolean landOnSolved = false;
+    
+    //Set the iteration budget: give up on a point after maxIterations, and count it as converged once a step
+    //is smaller than tolerance. The stats printed after each render (see printStats) show how many pixels
+    //ran out of iterations, which is the thing to look at before raising maxIterations.
+    int maxIterations = NFPIMethod.N;
+    double tolerance = NFPIMethod.TOL;
+    
+    //Set printStats to true to print a histogram of iterations per pixel, the number of pixels that didn't
+    //converge, the time each stage took, pixels per second and a suggested alphaFactor after each render
+    //(see RenderStats).
+    boolean printStats = true;
+    
     //Set image dimensions.
     int ImageXDim = 1920;
     int ImageYDim = 1080;
     
-    //Set function and its derivative (check Complex() for complex arithmetic)
-    UnaryOperator<Complex> f = (a) -> { return a.pow(3).minus(a);};
-    UnaryOperator<Complex> fp = (a) -> {return a.pow(2).times(3).minus(1);};
+    //Set the function. Polynomials are given by their coefficients, lowest power first, and
+    //f' comes from Horner's rule along with f - this one is z^3 - z.
+    //For a function that isn't a polynomial, write it with HyperDual arithmetic (the same as Complex) and
+    //use it for fn below instead. f' is worked out along with f, so there's no derivative to get wrong, e.g.
+    //  ComplexFunction fn = HyperDual.toFunction(z -> z.sin().minus(z.times(0.5)), 1);
+    Polynomial poly = new Polynomial(0, -1, 0, 1);
     
-    Complex.setF(f);
-    Complex.setFPrime(fp);
+    //Or type the function in instead of changing the code: run with it as an argument, e.g.
+    //  java ComplexImageMaker "z^5 - 3*sin(z) + 1"
+    //(see Expression for what it can use). f' is worked out from it, and the roots are found for you
+    //(see findRoots below).
+    String expression = args.length > 0 ? args[0] : null;
     
     //See paper for explanation of K. Set K between 0.5 and 1. k=1 runs Newton's Method as usual.
     //Otherwise, instead of using f(x) in the N(x) calculation, f^k(x) is used. 
     //Smaller values of k produce more complex and beautiful fractals, as explained in the paper. 
-    Complex.setK(1);
+    ComplexFunction fn;
+    try {
+      fn = expression != null ? Expression.parse(expression).toFunction(1) : poly.toFunction(1);
+    } catch(IllegalArgumentException x) {
+      System.out.println(x.getMessage());
+      return;
+    }
+    NFPIMethod solver = new NFPIMethod(fn, maxIterations, tolerance, detectCycles);
     
     //A great extension here would be to construct a function and its derivative from
     //hardcoded roots, to avoid having to encode the roots and the derivative manually.
@@ -62,24 +123,36 @@ public class ComplexImageMaker {
     double WindowYLowBound = -1;
     double WindowYHiBound = 1;
     
+    //Set findRoots to true to find the roots automatically instead of listing them in basinArray - for
+    //functions with lots of roots, like sin(). Newton's method is run from a sparse grid of points over the window
+    //and every point it converges to becomes a root (see RootFinder). Roots with tiny basins that the grid
+    //misses are drawn in the "extra" color.
+    boolean findRoots = false;
+    if(findRoots || expression != null) {
+      Window grid = new Window(WindowXLowBound, WindowXHiBound, WindowYLowBound, WindowYHiBound,
+                               ImageXDim, ImageYDim);
+      basinArray = new ArrayList<Complex>(new RootFinder(solver).find(grid, 160, 90, BasinSampler.MATCH_RADIUS));
+      System.out.println("Found " + basinArray.size() + " roots: " + basinArray);
+    }
+    
     //Set alphaFactor so that the maximum iterations from NFPIMethod.java times the 
     //alphaFactor is approximately 255 (the maximum opaqueness). I currently have
     //maxIterations set to 25. In practice I have sometimes adjusted the alphaFactor
     //to maximize contrast in the generated images (for example, setting it higher if most
-    //points converge to within TOL in <10 iterations). 
+    //points converge to within TOL in <10 iterations). The stats printed after a render
+    //suggest one from the iterations the pixels actually took.
     int alphaFactor = 10;
     
     //Define some color integers to use in the rendered image. After the 6th color
     //they are randomly generated. 
-    BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
     int colSize = 0;
     
-    //(Set random colors until basinArray is exhausted. Set minimum colors to 6 to avoid
-    // array out of bounds exception.)
-    if(basinArray.size() < 6) {
+    //(Set random colors until basinArray is exhausted, plus one for the extra basin and one for
+    // cycles. Set minimum colors to 6 to avoid array out of bounds exception.)
+    if(basinArray.size() < 5) {
       colSize = 6; 
     } else {
-      colSize = basinArray.size() + 1;
+      colSize = basinArray.size() + 2;
     }
     
     int[] col = new int[colSize];
@@ -123,66 +196,86 @@ public class ComplexImageMaker {
     
     
     
-    //Initialize a Complex object to represent each pixel.
-    Complex pixel = new Complex(0,0);
-    //Initialize color integer.
-    int thisColor = 0;
-    //For each pixel in the image...
-    for(int i = 0; i < ImageXDim; i++) {
-      for(int j = ImageYDim-1; j > -1; j--) {
-        //Set pixel coordinates based on window dimensions. (Note Y coordinate is reversed because
-        //the top of the image is actually y=0, not y=WindowYHiBound.)
-        pixel.setDoubles( ((double)i/ImageXDim)*(WindowXHiBound-WindowXLowBound) + WindowXLowBound,
-                         ( 1 - ((double)j/ImageYDim))*(WindowYHiBound-WindowYLowBound) + WindowYLowBound);
-        //Figure out which color to set the pixel to.
-        thisColor = col[testBasin(pixel, basinArray)];
-        //Then set the alpha based on how many iterations it took for the pixel to converge.
-        int alpha;
-        if(NFPIMethod.i * alphaFactor <= 255) {
-          alpha = NFPIMethod.i * alphaFactor;
-        } else {
-          //Just in case I set the alphaFactor badly and get a number over 255.
-          alpha = 255;
-        }
-        //Add alpha value to the color by bit-shifting it and combining the binary numbers
-        //with a bitwise OR operation. 
-        thisColor = ( alpha << 24) | thisColor;
-        //Set the pixel to the color, and move on to the next pixel.
-        img.setRGB(i, j, thisColor);
-      }
-    }
+    //Work out which basin each pixel of the window is in and how many iterations it took, and color
+    //it with col[] and alphaFactor. The tiles are spread over all cores by the RenderEngine.
+    Window window = new Window(WindowXLowBound, WindowXHiBound, WindowYLowBound, WindowYHiBound,
+                               ImageXDim, ImageYDim);
+    //(With landOnSolved, the sampler looks up the pixels solved so far in the array they're going into.)
+    int[] solved = landOnSolved && !tiled && !streamOutput ? new int[ImageXDim * ImageYDim] : null;
+    BasinSampler sampler = new BasinSampler(solver, basinArray, window, earlyExit, solved);
+    Palette palette = new Palette(col, alphaFactor);
+    RenderEngine engine = new RenderEngine();
     
-    //Write the BufferedImage to file and output filename to console.
+    //Find an unused file name, then render the image and write it to file.
     int k = 0;
     File output = new File("img" + k + ".png");
     while(output.exists()) {
       k++;
       output = new File("img" + k + ".png");
     }
+    RenderStats stats = new RenderStats(solver, basinArray.size());
+    RenderEngine.Sampler counted = stats.counting(sampler);
+    long t = System.nanoTime();
     try {
-      ImageIO.write(img, "PNG", output);
+      if(tiled) {
+        String key = RenderCache.key(solver, basinArray, window, -1, earlyExit);
+        if(key == null) {
+          //(Without a key there's no telling the tiles of one function from another's, so carrying on from
+          //a .tiles file could mix two functions up in one image.)
+          System.out.println("Can't render this function tiled: only Polynomials and typed-in functions can be"
+                               + " picked up again from a .tiles file.");
+          return;
+        }
+        File tiles = new File("img_" + key.substring(0, 16) + ".tiles");
+        TileStore store = TileStore.open(tiles, key, ImageXDim, ImageYDim, 256);
+        int before = store.countDone();
+        if(before > 0) {
+          System.out.println("Carrying on from " + before + " of " + store.getTilesX() * store.getTilesY()
+                               + " tiles in " + tiles + ".");
+        }
+        //(Only the tiles solved this time are counted.)
+        engine.renderTiles(store, counted);
+        store.force();
+        t = stats.stage("solve", t);
+        new Colorizer(palette).writePng(store, output);
+        stats.stage("write", t);
+      } else if(streamOutput) {
+        //(Solving, coloring and writing all happen together here.)
+        engine.renderPng(ImageXDim, ImageYDim, palette.shader(counted), output, 64);
+        stats.stage("render", t);
+      } else if(adaptive) {
+        int[] samples = solved != null ? solved : new int[ImageXDim * ImageYDim];
+        long skipped = engine.sampleAdaptive(ImageXDim, ImageYDim, sampler, adaptiveTolerance, samples);
+        System.out.println("Filled in " + skipped + " of " + (long)ImageXDim * ImageYDim + " pixels without solving.");
+        t = stats.stage("solve", t);
+        stats.count(samples);
+        BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+        palette.paint(samples, img);
+        t = stats.stage("color", t);
+        ImageIO.write(img, "PNG", output);
+        stats.stage("write", t);
+      } else if(solved != null) {
+        engine.sample(ImageXDim, ImageYDim, counted, solved);
+        t = stats.stage("solve", t);
+        BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+        palette.paint(solved, img);
+        t = stats.stage("color", t);
+        ImageIO.write(img, "PNG", output);
+        stats.stage("write", t);
+      } else {
+        BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+        engine.render(img, palette.shader(counted));
+        t = stats.stage("render", t);
+        ImageIO.write(img, "PNG", output);
+        stats.stage("write", t);
+      }
     } catch(Exception x) {
       System.out.println(x);
     }
-    System.out.println("Image output to img" + k + ".png.");
-  }
-  
-  public static int testBasin(Complex a, ArrayList<Complex> basinArray) {   
-    
-    //Run the iteration, and compare to each basin. 
-    //I compare within 0.01 because TOL = 0.01.
-    Complex aIter = NFPIMethod.nfpi(a);
-    for(int i = 0; i < basinArray.size(); i++) {
-      if( aIter.minus(basinArray.get(i)).abs() < 0.01) {
-        //Return the number of the root that it matched.
-        return i;
-      }
+    if(printStats) {
+      System.out.print(stats.report());
     }
-    //If a match isn't found, return the length of the array - which is what the next
-    //root would be if there was one. Thus all points that don't converge, cyclical 
-    //patterns that don't end up at one root or another, etc end up colored with an 
-    //"extra" color.
-    return basinArray.size();   
+    System.out.println("Image output to img" + k + ".png.");
   }
   
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Disks around the roots of a Polynomial that Newton's method (damped by k, as in NFPIMethod) can't leave:
+ * once an iterate is inside one, it's certain to end up at that disk's root. BatchNewton stops there instead
+ * of carrying on until a step is smaller than TOL, which saves the last few (and most predictable) iterations
+ * of nearly every pixel.
+ *
+ * The radius comes from how curved f is around the root. With a_j = f^(j)(root) / (j! f'(root)) (the Taylor
+ * coefficients of f at the root, divided by the first one) and gamma = the largest |a_j|^(1/(j-1)), write
+ * e = z - root and u = gamma*|e|. Then one step of z - (f/f')/k lands at a distance of at most
+ *   q(u) * |e|,  where  q(u) = |1 - 1/k| + (u/k) / (2(1-u)^2 - 1)
+ * from the root. While q(u) < 1 every step gets closer, so the disk is where q(u) is halfway between
+ * |1 - 1/k| and 1 (leaving some room for rounding). For k <= 0.5 Newton's method doesn't contract at all
+ * near a root, so there are no disks.
+ * */
+
+public class ConvergenceDisks {
+
+  //(For a straight line gamma is 0 and the disk would be infinite.)
+  private static final double MAX_RADIUS = 1000;
+  //Most cells the lookup grid has on a side.
+  private static final int MAX_CELLS = 1024;
+
+  private final double[] centerA;
+  private final double[] centerB;
+  private final double[] radius;
+  private final int[] basin;
+  private final double maxRadius;
+  //Which disk to check for a point, by square cells over the disks' bounding box: the disk whose center is
+  //nearest the middle of the cell, of the ones that overlap it (-1 if none do). Finding it is just an array
+  //lookup, which matters because it's done on most of the last few iterations of every pixel.
+  private final int[] grid;
+  private final int cellsX;
+  private final int cellsY;
+  private final double x0;
+  private final double y0;
+  private final double cell;
+
+  //Disks for poly's roots, run with damping k. Each root in roots is first made exact with a few undamped
+  //Newton steps; it's skipped if that moves it off by matchRadius or more (so it wasn't a root of poly), or if
+  //it's a multiple root. A disk's basin is the first root within matchRadius of the exact root, the same as
+  //BasinSampler.classify() would give it.
+  public ConvergenceDisks(Polynomial poly, double k, List<Complex> roots, double matchRadius) {
+    RootIndex match = new RootIndex(roots, matchRadius);
+    List<double[]> disks = new ArrayList<double[]>();
+    double lambda = 1/k;
+    if(Math.abs(1 - lambda) < 1) {
+      for(Complex root : roots) {
+        double[] z = polish(poly, root.getA(), root.getB());
+        int b = match.find(z[0], z[1]);
+        if(b < 0) {
+          continue;
+        }
+        double gamma = gamma(poly, z[0], z[1]);
+        if(!(gamma < Double.POSITIVE_INFINITY)) {
+          continue;
+        }
+        double r = gamma > 0 ? radius(lambda) / gamma : MAX_RADIUS;
+        disks.add(new double[] {z[0], z[1], Math.min(r, MAX_RADIUS), b});
+      }
+    }
+    int n = disks.size();
+    centerA = new double[n];
+    centerB = new double[n];
+    radius = new double[n];
+    basin = new int[n];
+    double max = 0;
+    for(int d = 0; d < n; d++) {
+      double[] disk = disks.get(d);
+      centerA[d] = disk[0];
+      centerB[d] = disk[1];
+      radius[d] = disk[2];
+      basin[d] = (int) disk[3];
+      max = Math.max(max, disk[2]);
+    }
+    maxRadius = max;
+
+    double left = Double.POSITIVE_INFINITY, right = Double.NEGATIVE_INFINITY;
+    double top = Double.POSITIVE_INFINITY, bottom = Double.NEGATIVE_INFINITY;
+    for(int d = 0; d < n; d++) {
+      left = Math.min(left, centerA[d] - radius[d]);
+      right = Math.max(right, centerA[d] + radius[d]);
+      top = Math.min(top, centerB[d] - radius[d]);
+      bottom = Math.max(bottom, centerB[d] + radius[d]);
+    }
+    if(n == 0) {
+      left = right = top = bottom = 0;
+    }
+    x0 = left;
+    y0 = top;
+    cell = Math.max(Math.max(right - left, bottom - top) / MAX_CELLS, Math.max(max, Double.MIN_NORMAL));
+    cellsX = (int) ((right - left) / cell) + 1;
+    cellsY = (int) ((bottom - top) / cell) + 1;
+    grid = new int[cellsX * cellsY];
+    Arrays.fill(grid, -1);
+    for(int d = 0; d < n; d++) {
+      int i0 = cellX(centerA[d] - radius[d]), i1 = cellX(centerA[d] + radius[d]);
+      int j0 = cellY(centerB[d] - radius[d]), j1 = cellY(centerB[d] + radius[d]);
+      for(int j = j0; j <= j1; j++) {
+        for(int i = i0; i <= i1; i++) {
+          int c = j * cellsX + i;
+          if(grid[c] < 0 || distanceToCell(d, i, j) < distanceToCell(grid[c], i, j)) {
+            grid[c] = d;
+          }
+        }
+      }
+    }
+  }
+
+  private int cellX(double x) {
+    return Math.min(cellsX - 1, Math.max(0, (int) ((x - x0) / cell)));
+  }
+
+  private int cellY(double y) {
+    return Math.min(cellsY - 1, Math.max(0, (int) ((y - y0) / cell)));
+  }
+
+  //Distance from the center of disk d to the middle of cell (i, j).
+  private double distanceToCell(int d, int i, int j) {
+    double da = x0 + (i + 0.5) * cell - centerA[d];
+    double db = y0 + (j + 0.5) * cell - centerB[d];
+    return Math.sqrt( (da*da) + (db*db) );
+  }
+
+  //Basin of the disk that re + im*i is inside, or -1 if it isn't in one. (Only the disk picked for the
+  //point's cell is checked, so very occasionally a point in a disk gets -1, which just means iteration
+  //carries on as normal.)
+  public int find(double re, double im) {
+    double x = (re - x0) / cell;
+    double y = (im - y0) / cell;
+    //(Also false for NaN.)
+    if(!(x >= 0 && x < cellsX && y >= 0 && y < cellsY)) {
+      return -1;
+    }
+    int d = grid[(int) y * cellsX + (int) x];
+    if(d < 0) {
+      return -1;
+    }
+    double da = re - centerA[d];
+    double db = im - centerB[d];
+    return Math.sqrt( (da*da) + (db*db) ) < radius[d] ? basin[d] : -1;
+  }
+
+  //Radius of the biggest disk. (This isn't a bound on the steps into a disk: a long step can end in one
+  //too. BatchNewton only uses it to guess which steps are worth looking up - see solveLanes().)
+  public double getMaxRadius() {
+    return maxRadius;
+  }
+
+  //Number of disks.
+  public int size() {
+    return radius.length;
+  }
+
+  //Radius of disk d.
+  public double getRadius(int d) {
+    return radius[d];
+  }
+
+  //Undamped Newton's method from a + b*i until it stops moving (it starts right next to a root, so this
+  //only takes a few steps).
+  private static double[] polish(Polynomial poly, double a, double b) {
+    double[] w = new double[4];
+    for(int step = 0; step < 50; step++) {
+      poly.evaluate(a, b, 1, w);
+      double denominator = (w[2] * w[2]) + (w[3] * w[3]);
+      if(denominator == 0) {
+        break;
+      }
+      double qa = ((w[0] * w[2]) + (w[1] * w[3])) / denominator;
+      double qb = ((w[1] * w[2]) - (w[0] * w[3])) / denominator;
+      a -= qa;
+      b -= qb;
+      if(Math.sqrt( (qa*qa) + (qb*qb) ) <= 1e-15 * (1 + Math.sqrt( (a*a) + (b*b) ))) {
+        break;
+      }
+    }
+    return new double[] {a, b};
+  }
+
+  //gamma of poly at the root a + b*i (infinite at a multiple root).
+  private static double gamma(Polynomial poly, double a, double b) {
+    //Taylor coefficients at the root by repeated synthetic division: afterwards tr[j] + ti[j]*i is
+    //f^(j)(root) / j!.
+    int n = poly.degree();
+    double[] tr = new double[n + 1];
+    double[] ti = new double[n + 1];
+    for(int p = 0; p <= n; p++) {
+      tr[p] = poly.coefficient(p).getA();
+      ti[p] = poly.coefficient(p).getB();
+    }
+    for(int j = 0; j < n; j++) {
+      for(int p = n - 1; p >= j; p--) {
+        double t = tr[p] + (a * tr[p + 1]) - (b * ti[p + 1]);
+        ti[p] = ti[p] + (a * ti[p + 1]) + (b * tr[p + 1]);
+        tr[p] = t;
+      }
+    }
+    double d1 = Math.sqrt( (tr[1]*tr[1]) + (ti[1]*ti[1]) );
+    if(d1 == 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double gamma = 0;
+    for(int j = 2; j <= n; j++) {
+      double dj = Math.sqrt( (tr[j]*tr[j]) + (ti[j]*ti[j]) );
+      gamma = Math.max(gamma, Math.pow(dj / d1, 1.0 / (j - 1)));
+    }
+    return gamma;
+  }
+
+  //The u (= gamma * radius) where q(u) is halfway between |1 - lambda| and 1, by bisection. q only makes
+  //sense while 2(1-u)^2 > 1, and goes up with u.
+  private static double radius(double lambda) {
+    double base = Math.abs(1 - lambda);
+    double target = (1 + base) / 2;
+    double lo = 0;
+    double hi = 1 - Math.sqrt(0.5);
+    for(int step = 0; step < 60; step++) {
+      double u = (lo + hi) / 2;
+      double q = base + (lambda * u) / (2 * (1 - u) * (1 - u) - 1);
+      if(q < target) {
+        lo = u;
+      } else {
+        hi = u;
+      }
+    }
+    return lo;
+  }
+}
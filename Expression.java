@@ -0,0 +1,748 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/* A function of z typed in as text, like "z^5 - 3*sin(z) + 1", so a new fractal doesn't need f, f' and f''
+ * written as lambdas and recompiled. The text is parsed into a tree, with constant parts worked out straight
+ * away (2*pi/3 becomes one number, z^2 stays as it is). The derivatives come from differentiating the tree,
+ * and compile() turns f, f' and f'' into a ComplexEvaluator working on plain doubles (see
+ * ExpressionCompiler), which is as quick as writing the evaluator by hand. Polynomials are turned into a
+ * Polynomial instead - written out term by term (z^20 - 1, say), or as products ((z-1)(z+1)^2) that are
+ * multiplied out, if that doesn't give more than MAX_MULTIPLIED_DEGREE.
+ *
+ * The text can use z, numbers (1, 2.5, 1e-3), i, pi, e, + - * / ^ and brackets, and the functions sin, cos,
+ * tan, sinh, cosh, tanh, exp, log and sqrt. A number right before a name or bracket multiplies it (3z,
+ * 2sin(z), 4i). ^ binds tighter than a minus in front, so -z^2 is -(z^2). Powers that aren't whole numbers, and
+ * log and sqrt, take the principal branch.
+ * */
+
+public class Expression {
+
+  //Node types. Functions (SIN and after) take one argument, in a.
+  static final int CONST = 0, Z = 1, ADD = 2, SUB = 3, MUL = 4, DIV = 5, NEG = 6, POWI = 7;
+  static final int SIN = 8, COS = 9, EXP = 10, LOG = 11, SQRT = 12, SINH = 13, COSH = 14;
+  static final String[] FUNCTIONS = {null, null, null, null, null, null, null, null,
+                                     "sin", "cos", "exp", "log", "sqrt", "sinh", "cosh"};
+
+  //A node of the tree. Nodes never change, and equal trees are equal(), so repeated parts can be found
+  //and only worked out once.
+  static final class Node {
+    final int op;
+    final Node a;
+    final Node b;
+    //Value of a CONST.
+    final double re;
+    final double im;
+    //Power of a POWI.
+    final int n;
+    private final int hash;
+
+    Node(int op, Node a, Node b, double re, double im, int n) {
+      this.op = op;
+      this.a = a;
+      this.b = b;
+      this.re = re;
+      this.im = im;
+      this.n = n;
+      int h = op * 31 + n;
+      h = h * 31 + Double.hashCode(re);
+      h = h * 31 + Double.hashCode(im);
+      h = h * 31 + (a == null ? 0 : a.hash);
+      hash = h * 31 + (b == null ? 0 : b.hash);
+    }
+
+    boolean isConst() {
+      return op == CONST;
+    }
+
+    boolean is(double value) {
+      return op == CONST && re == value && im == 0;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object o) {
+      if(this == o) {
+        return true;
+      }
+      if(!(o instanceof Node)) {
+        return false;
+      }
+      Node other = (Node) o;
+      return hash == other.hash && op == other.op && n == other.n && Double.compare(re, other.re) == 0
+        && Double.compare(im, other.im) == 0 && (a == null ? other.a == null : a.equals(other.a))
+        && (b == null ? other.b == null : b.equals(other.b));
+    }
+  }
+
+  static final Node ZERO = constant(0, 0);
+  static final Node ONE = constant(1, 0);
+  static final Node VARIABLE = new Node(Z, null, null, 0, 0, 0);
+
+  //Highest degree a polynomial written as a product is multiplied out to. Multiplying out loses precision
+  //near repeated roots (the coefficients get big and cancel): (z-1)^n (z+1)^n is good to about 1e-10 at
+  //degree 8, 5e-7 at 12 and not at all at 20, relative to working out the product, so anything higher is
+  //evaluated as it's written.
+  static final int MAX_MULTIPLIED_DEGREE = 8;
+
+  private final Node root;
+
+  Expression(Node root) {
+    this.root = root;
+  }
+
+  //Parse text (see above). Throws IllegalArgumentException saying where, if it can't.
+  public static Expression parse(String text) {
+    Parser p = new Parser(text);
+    Node n = p.sum();
+    p.skipSpaces();
+    if(p.pos < text.length()) {
+      throw p.error("Unexpected " + text.charAt(p.pos));
+    }
+    return new Expression(n);
+  }
+
+  //The derivative with respect to z.
+  public Expression derivative() {
+    return new Expression(derivative(root, new HashMap<Node, Node>()));
+  }
+
+  //The value at z (slowly - use compile() for anything that's done per pixel).
+  public Complex evaluate(Complex z) {
+    double[] v = evaluate(root, z.getA(), z.getB());
+    return new Complex(v[0], v[1]);
+  }
+
+  //An evaluator for this function and its first two derivatives on doubles.
+  public ComplexEvaluator compile() {
+    Node fp = derivative(root, new HashMap<Node, Node>());
+    return ExpressionCompiler.compile(root, fp, derivative(fp, new HashMap<Node, Node>()));
+  }
+
+  //This as a Polynomial, if it is one (only +, -, *, whole powers and constants) and it can be written with
+  //coefficients without losing precision (see MAX_MULTIPLIED_DEGREE), otherwise null.
+  public Polynomial toPolynomial() {
+    boolean[] multiplied = {false};
+    double[][] c = coefficients(root, multiplied);
+    if(c == null) {
+      return null;
+    }
+    //(Without the leading zeros, which would only slow Horner's rule down.)
+    int length = c[0].length;
+    while(length > 1 && c[0][length - 1] == 0 && c[1][length - 1] == 0) {
+      length--;
+    }
+    if(multiplied[0] && length - 1 > MAX_MULTIPLIED_DEGREE) {
+      return null;
+    }
+    return new Polynomial(Arrays.copyOf(c[0], length), Arrays.copyOf(c[1], length));
+  }
+
+  //A ComplexFunction for NFPIMethod or HalleysMethod. Polynomials become a Polynomial, so they get
+  //everything that's only done for those (BatchNewton, ConvergenceDisks); anything else is evaluated by
+  //compile(), with f, fprime and f2prime (for anything that goes through Complex) using the same evaluator,
+  //and toString() as its source, so RenderCache and tiled renders can tell it from other functions.
+  public ComplexFunction toFunction(double k) {
+    Polynomial poly = toPolynomial();
+    if(poly != null) {
+      return poly.toFunction(k);
+    }
+    ComplexEvaluator evaluator = compile();
+    return new ComplexFunction(z -> part(evaluator, z, 0), z -> part(evaluator, z, 1),
+                               z -> part(evaluator, z, 2), evaluator, k, toString());
+  }
+
+  private static Complex part(ComplexEvaluator evaluator, Complex z, int derivative) {
+    double[] w = new double[6];
+    evaluator.evaluate(z.getA(), z.getB(), Math.max(1, derivative), w);
+    return new Complex(w[2 * derivative], w[2 * derivative + 1]);
+  }
+
+  Node getRoot() {
+    return root;
+  }
+
+  //Written back out as text that parses to the same thing (numbers in full).
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    print(root, 0, s);
+    return s.toString();
+  }
+
+  //Builders for each type of node. Parts that are all constants are worked out, and adding 0, multiplying by
+  //0 or 1 and so on are left out, which keeps derivatives from filling up with them.
+
+  static Node constant(double re, double im) {
+    return new Node(CONST, null, null, re, im, 0);
+  }
+
+  static Node add(Node a, Node b) {
+    if(a.isConst() && b.isConst()) {
+      return fold(ADD, a, b, 0);
+    }
+    if(a.is(0)) {
+      return b;
+    }
+    if(b.is(0)) {
+      return a;
+    }
+    if(b.op == NEG) {
+      return sub(a, b.a);
+    }
+    if(negative(b)) {
+      return sub(a, neg(b));
+    }
+    //(x + c) + d = x + (c + d), and (x - c) + d = x - (c - d).
+    if(b.isConst() && (a.op == ADD || a.op == SUB) && a.b.isConst()) {
+      return a.op == ADD ? add(a.a, fold(ADD, a.b, b, 0)) : sub(a.a, fold(SUB, a.b, b, 0));
+    }
+    return new Node(ADD, a, b, 0, 0, 0);
+  }
+
+  static Node sub(Node a, Node b) {
+    if(a.isConst() && b.isConst()) {
+      return fold(SUB, a, b, 0);
+    }
+    if(b.is(0)) {
+      return a;
+    }
+    if(a.is(0)) {
+      return neg(b);
+    }
+    if(b.op == NEG) {
+      return add(a, b.a);
+    }
+    if(negative(b)) {
+      return add(a, neg(b));
+    }
+    //(x + c) - d = x + (c - d), and (x - c) - d = x - (c + d).
+    if(b.isConst() && (a.op == ADD || a.op == SUB) && a.b.isConst()) {
+      return a.op == ADD ? add(a.a, fold(SUB, a.b, b, 0)) : sub(a.a, fold(ADD, a.b, b, 0));
+    }
+    return new Node(SUB, a, b, 0, 0, 0);
+  }
+
+  //Whether node is a negative real number, or one times something, so it reads better subtracted.
+  private static boolean negative(Node node) {
+    Node c = node.op == MUL ? node.a : node;
+    return c.isConst() && c.im == 0 && c.re < 0;
+  }
+
+  static Node mul(Node a, Node b) {
+    //(Constants go on the left.)
+    if(b.isConst() && !a.isConst()) {
+      Node t = a;
+      a = b;
+      b = t;
+    }
+    if(a.isConst()) {
+      if(b.isConst()) {
+        return fold(MUL, a, b, 0);
+      }
+      if(a.is(0)) {
+        return ZERO;
+      }
+      if(a.is(1)) {
+        return b;
+      }
+      if(a.is(-1)) {
+        return neg(b);
+      }
+      //c * (d * x) = (c*d) * x, and c * -x = -c * x.
+      if(b.op == MUL && b.a.isConst()) {
+        return mul(fold(MUL, a, b.a, 0), b.b);
+      }
+      if(b.op == NEG) {
+        return mul(fold(NEG, a, null, 0), b.a);
+      }
+    }
+    if(a.op == NEG) {
+      return neg(mul(a.a, b));
+    }
+    if(b.op == NEG) {
+      return neg(mul(a, b.a));
+    }
+    if(a.equals(b)) {
+      return powi(a, 2);
+    }
+    return new Node(MUL, a, b, 0, 0, 0);
+  }
+
+  static Node div(Node a, Node b) {
+    if(a.isConst() && b.isConst()) {
+      return fold(DIV, a, b, 0);
+    }
+    if(b.isConst()) {
+      //Dividing by a constant is multiplying by 1 over it.
+      return mul(fold(DIV, ONE, b, 0), a);
+    }
+    if(a.is(0)) {
+      return ZERO;
+    }
+    if(a.op == NEG) {
+      return neg(div(a.a, b));
+    }
+    return new Node(DIV, a, b, 0, 0, 0);
+  }
+
+  static Node neg(Node a) {
+    if(a.isConst()) {
+      return fold(NEG, a, null, 0);
+    }
+    if(a.op == NEG) {
+      return a.a;
+    }
+    if(a.op == MUL && a.a.isConst()) {
+      return mul(fold(NEG, a.a, null, 0), a.b);
+    }
+    return new Node(NEG, a, null, 0, 0, 0);
+  }
+
+  //a^n for a whole number n.
+  static Node powi(Node a, int n) {
+    if(n == 0) {
+      return ONE;
+    }
+    if(n == 1) {
+      return a;
+    }
+    if(a.isConst()) {
+      return fold(POWI, a, null, n);
+    }
+    if(a.op == POWI && Math.abs((long) a.n * n) <= Integer.MAX_VALUE / 2) {
+      return powi(a.a, a.n * n);
+    }
+    return new Node(POWI, a, null, 0, 0, n);
+  }
+
+  //a^b. Whole number powers are multiplied out; anything else is exp(b*log(a)).
+  static Node pow(Node a, Node b) {
+    if(b.isConst() && b.im == 0 && b.re == Math.rint(b.re) && Math.abs(b.re) <= 1 << 20) {
+      return powi(a, (int) b.re);
+    }
+    if(a.isConst() && b.isConst()) {
+      return fold(EXP, fold(MUL, b, fold(LOG, a, null, 0), 0), null, 0);
+    }
+    return function(EXP, mul(b, function(LOG, a)));
+  }
+
+  static Node function(int op, Node a) {
+    if(a.isConst()) {
+      return fold(op, a, null, 0);
+    }
+    return new Node(op, a, null, 0, 0, 0);
+  }
+
+  private static Node fold(int op, Node a, Node b, int n) {
+    double[] out = new double[2];
+    apply(op, a.re, a.im, b == null ? 0 : b.re, b == null ? 0 : b.im, n, out);
+    return constant(out[0], out[1]);
+  }
+
+  //Work out op on a and b (b is only used by ADD to DIV, and n by POWI) into out[0], out[1]. This is the
+  //arithmetic ExpressionCompiler's generated code does too, term for term, so both give the same numbers.
+  static void apply(int op, double ar, double ai, double br, double bi, int n, double[] out) {
+    double r, i;
+    switch(op) {
+      case ADD: r = ar + br; i = ai + bi; break;
+      case SUB: r = ar - br; i = ai - bi; break;
+      case MUL: r = (ar * br) - (ai * bi); i = (ar * bi) + (ai * br); break;
+      case DIV: {
+        double d = (br * br) + (bi * bi);
+        r = ((ar * br) + (ai * bi)) / d;
+        i = ((ai * br) - (ar * bi)) / d;
+        break;
+      }
+      case NEG: r = -ar; i = -ai; break;
+      case POWI: {
+        //By repeated squaring, lowest bit first.
+        int m = Math.abs(n);
+        double pr = 1, pi = 0;
+        boolean first = true;
+        while(true) {
+          if((m & 1) != 0) {
+            if(first) {
+              pr = ar;
+              pi = ai;
+              first = false;
+            } else {
+              double t = (pr * ar) - (pi * ai);
+              pi = (pr * ai) + (pi * ar);
+              pr = t;
+            }
+          }
+          m >>>= 1;
+          if(m == 0) {
+            break;
+          }
+          double t = (ar * ar) - (ai * ai);
+          ai = 2 * ar * ai;
+          ar = t;
+        }
+        if(n < 0) {
+          double d = (pr * pr) + (pi * pi);
+          pr = pr / d;
+          pi = -pi / d;
+        }
+        r = pr;
+        i = pi;
+        break;
+      }
+      case SIN: r = Math.sin(ar) * Math.cosh(ai); i = Math.cos(ar) * Math.sinh(ai); break;
+      case COS: r = Math.cos(ar) * Math.cosh(ai); i = -(Math.sin(ar) * Math.sinh(ai)); break;
+      case EXP: {
+        double e = Math.exp(ar);
+        r = e * Math.cos(ai);
+        i = e * Math.sin(ai);
+        break;
+      }
+      case LOG: r = 0.5 * Math.log((ar * ar) + (ai * ai)); i = Math.atan2(ai, ar); break;
+      case SQRT: {
+        double m = Math.sqrt((ar * ar) + (ai * ai));
+        double t = Math.sqrt((Math.abs(ar) + m) / 2);
+        if(t == 0) {
+          r = 0;
+          i = 0;
+        } else if(ar >= 0) {
+          r = t;
+          i = ai / (2 * t);
+        } else {
+          r = Math.abs(ai) / (2 * t);
+          i = Math.copySign(t, ai);
+        }
+        break;
+      }
+      case SINH: r = Math.sinh(ar) * Math.cos(ai); i = Math.cosh(ar) * Math.sin(ai); break;
+      case COSH: r = Math.cosh(ar) * Math.cos(ai); i = Math.sinh(ar) * Math.sin(ai); break;
+      default: throw new IllegalArgumentException("Can't apply node type " + op);
+    }
+    out[0] = r;
+    out[1] = i;
+  }
+
+  private static double[] evaluate(Node node, double re, double im) {
+    switch(node.op) {
+      case CONST: return new double[] {node.re, node.im};
+      case Z: return new double[] {re, im};
+      default: {
+        double[] a = evaluate(node.a, re, im);
+        double[] b = node.b == null ? new double[2] : evaluate(node.b, re, im);
+        double[] out = new double[2];
+        apply(node.op, a[0], a[1], b[0], b[1], node.n, out);
+        return out;
+      }
+    }
+  }
+
+  //Coefficients of node, lowest power first (re in [0] and im in [1]), or null if it isn't a polynomial.
+  //multiplied[0] is set if it had to multiply out a product of two polynomials with more than one term each
+  //(which is where precision goes).
+  private static double[][] coefficients(Node node, boolean[] multiplied) {
+    switch(node.op) {
+      case CONST: return new double[][] {{node.re}, {node.im}};
+      case Z: return new double[][] {{0, 1}, {0, 0}};
+      case ADD: case SUB: {
+        double[][] a = coefficients(node.a, multiplied), b = coefficients(node.b, multiplied);
+        if(a == null || b == null) {
+          return null;
+        }
+        double[][] c = new double[2][Math.max(a[0].length, b[0].length)];
+        for(int p = 0; p < c[0].length; p++) {
+          double sign = node.op == ADD ? 1 : -1;
+          c[0][p] = (p < a[0].length ? a[0][p] : 0) + sign * (p < b[0].length ? b[0][p] : 0);
+          c[1][p] = (p < a[1].length ? a[1][p] : 0) + sign * (p < b[1].length ? b[1][p] : 0);
+        }
+        return c;
+      }
+      case NEG: {
+        double[][] a = coefficients(node.a, multiplied);
+        if(a == null) {
+          return null;
+        }
+        for(int p = 0; p < a[0].length; p++) {
+          a[0][p] = -a[0][p];
+          a[1][p] = -a[1][p];
+        }
+        return a;
+      }
+      case MUL: {
+        double[][] a = coefficients(node.a, multiplied), b = coefficients(node.b, multiplied);
+        if(a == null || b == null) {
+          return null;
+        }
+        multiplied[0] |= terms(a) > 1 && terms(b) > 1;
+        return times(a, b);
+      }
+      case POWI: {
+        double[][] a = coefficients(node.a, multiplied);
+        if(a == null || node.n < 0 || (long) node.n * (a[0].length - 1) > 1024) {
+          return null;
+        }
+        multiplied[0] |= node.n > 1 && terms(a) > 1;
+        double[][] c = {{1}, {0}};
+        for(int p = 0; p < node.n; p++) {
+          c = times(c, a);
+        }
+        return c;
+      }
+      default: return null;
+    }
+  }
+
+  //Number of terms of a polynomial that aren't 0.
+  private static int terms(double[][] c) {
+    int count = 0;
+    for(int p = 0; p < c[0].length; p++) {
+      if(c[0][p] != 0 || c[1][p] != 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static double[][] times(double[][] a, double[][] b) {
+    double[][] c = new double[2][a[0].length + b[0].length - 1];
+    for(int p = 0; p < a[0].length; p++) {
+      for(int q = 0; q < b[0].length; q++) {
+        c[0][p + q] += (a[0][p] * b[0][q]) - (a[1][p] * b[1][q]);
+        c[1][p + q] += (a[0][p] * b[1][q]) + (a[1][p] * b[0][q]);
+      }
+    }
+    return c;
+  }
+
+  //d/dz of node. done remembers the derivatives already worked out, so a part that's used several times
+  //is only differentiated once.
+  private static Node derivative(Node node, Map<Node, Node> done) {
+    Node d = done.get(node);
+    if(d != null) {
+      return d;
+    }
+    Node a = node.a, b = node.b;
+    Node da = a == null ? null : derivative(a, done);
+    switch(node.op) {
+      case CONST: d = ZERO; break;
+      case Z: d = ONE; break;
+      case ADD: d = add(da, derivative(b, done)); break;
+      case SUB: d = sub(da, derivative(b, done)); break;
+      case MUL: d = add(mul(da, b), mul(a, derivative(b, done))); break;
+      case DIV: d = div(sub(mul(da, b), mul(a, derivative(b, done))), powi(b, 2)); break;
+      case NEG: d = neg(da); break;
+      case POWI: d = mul(mul(constant(node.n, 0), powi(a, node.n - 1)), da); break;
+      case SIN: d = mul(function(COS, a), da); break;
+      case COS: d = neg(mul(function(SIN, a), da)); break;
+      case EXP: d = mul(node, da); break;
+      case LOG: d = div(da, a); break;
+      case SQRT: d = div(da, mul(constant(2, 0), node)); break;
+      case SINH: d = mul(function(COSH, a), da); break;
+      case COSH: d = mul(function(SINH, a), da); break;
+      default: throw new IllegalArgumentException("Can't differentiate node type " + node.op);
+    }
+    done.put(node, d);
+    return d;
+  }
+
+  //How tightly each type of node binds, for brackets when printing.
+  private static int precedence(Node node) {
+    switch(node.op) {
+      case ADD: case SUB: return 1;
+      case MUL: case DIV: return 2;
+      case NEG: return 3;
+      case POWI: return 4;
+      case CONST: return node.im == 0 ? (node.re < 0 ? 3 : 5) : 1;
+      default: return 5;
+    }
+  }
+
+  private static void print(Node node, int outer, StringBuilder s) {
+    boolean brackets = precedence(node) <= outer;
+    if(brackets) {
+      s.append('(');
+    }
+    switch(node.op) {
+      case CONST:
+        s.append(node.re);
+        if(node.im != 0) {
+          s.append(node.im < 0 ? " - " : " + ").append(Math.abs(node.im)).append("*i");
+        }
+        break;
+      case Z: s.append('z'); break;
+      case ADD: case SUB: case MUL: case DIV: {
+        int p = precedence(node);
+        //(Left associative, so the left side only needs brackets if it binds less tightly.)
+        print(node.a, p - 1, s);
+        s.append(node.op == ADD ? " + " : node.op == SUB ? " - " : node.op == MUL ? "*" : "/");
+        print(node.b, p, s);
+        break;
+      }
+      case NEG: s.append('-'); print(node.a, 3, s); break;
+      case POWI: print(node.a, 4, s); s.append('^').append(node.n < 0 ? "(" + node.n + ")" : "" + node.n); break;
+      default: s.append(FUNCTIONS[node.op]).append('('); print(node.a, 0, s); s.append(')'); break;
+    }
+    if(brackets) {
+      s.append(')');
+    }
+  }
+
+  //Recursive descent: sum of products of (signed) powers of atoms.
+  private static class Parser {
+    final String text;
+    int pos = 0;
+
+    Parser(String text) {
+      this.text = text;
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + pos + " of \"" + text + "\"");
+    }
+
+    void skipSpaces() {
+      while(pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    //Skip spaces, then take c if it's next.
+    boolean take(char c) {
+      skipSpaces();
+      if(pos < text.length() && text.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    Node sum() {
+      Node n = product();
+      while(true) {
+        if(take('+')) {
+          n = add(n, product());
+        } else if(take('-')) {
+          n = sub(n, product());
+        } else {
+          return n;
+        }
+      }
+    }
+
+    Node product() {
+      Node n = signed();
+      while(true) {
+        if(take('*')) {
+          n = mul(n, signed());
+        } else if(take('/')) {
+          n = div(n, signed());
+        } else {
+          //A name or bracket straight after something multiplies it (3z, 2sin(z), (z+1)(z-1)).
+          skipSpaces();
+          if(pos < text.length() && (Character.isLetter(text.charAt(pos)) || text.charAt(pos) == '(')) {
+            n = mul(n, power());
+          } else {
+            return n;
+          }
+        }
+      }
+    }
+
+    Node signed() {
+      if(take('-')) {
+        return neg(signed());
+      }
+      if(take('+')) {
+        return signed();
+      }
+      return power();
+    }
+
+    Node power() {
+      Node n = atom();
+      if(take('^')) {
+        //(Right associative, and the power can have a sign: z^-2.)
+        return pow(n, signed());
+      }
+      return n;
+    }
+
+    Node atom() {
+      skipSpaces();
+      if(pos >= text.length()) {
+        throw error("Expected a number, name or bracket");
+      }
+      char c = text.charAt(pos);
+      if(c == '(') {
+        pos++;
+        Node n = sum();
+        if(!take(')')) {
+          throw error("Expected )");
+        }
+        return n;
+      }
+      if(Character.isDigit(c) || c == '.') {
+        int start = pos;
+        while(pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+          pos++;
+        }
+        //An exponent, but only if a number follows (so 2e still means 2 times e).
+        if(pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+          int e = pos + 1;
+          if(e < text.length() && (text.charAt(e) == '+' || text.charAt(e) == '-')) {
+            e++;
+          }
+          if(e < text.length() && Character.isDigit(text.charAt(e))) {
+            pos = e;
+            while(pos < text.length() && Character.isDigit(text.charAt(pos))) {
+              pos++;
+            }
+          }
+        }
+        try {
+          return constant(Double.parseDouble(text.substring(start, pos)), 0);
+        } catch(NumberFormatException x) {
+          pos = start;
+          throw error("Bad number");
+        }
+      }
+      if(Character.isLetter(c)) {
+        int start = pos;
+        while(pos < text.length() && Character.isLetterOrDigit(text.charAt(pos))) {
+          pos++;
+        }
+        String name = text.substring(start, pos);
+        switch(name) {
+          case "z": return VARIABLE;
+          case "i": return constant(0, 1);
+          case "pi": return constant(Math.PI, 0);
+          case "e": return constant(Math.E, 0);
+        }
+        int op = -1;
+        for(int f = SIN; f < FUNCTIONS.length; f++) {
+          if(FUNCTIONS[f].equals(name)) {
+            op = f;
+          }
+        }
+        if(op < 0 && !name.equals("tan") && !name.equals("tanh")) {
+          pos = start;
+          throw error("Unknown name " + name);
+        }
+        if(!take('(')) {
+          throw error("Expected ( after " + name);
+        }
+        Node a = sum();
+        if(!take(')')) {
+          throw error("Expected )");
+        }
+        if(name.equals("tan")) {
+          return div(function(SIN, a), function(COS, a));
+        }
+        if(name.equals("tanh")) {
+          return div(function(SINH, a), function(COSH, a));
+        }
+        return function(op, a);
+      }
+      throw error("Unexpected " + c);
+    }
+  }
+}
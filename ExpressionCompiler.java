@@ -0,0 +1,404 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/* Turns an Expression's f, f' and f'' into a ComplexEvaluator. Each part that appears anywhere in the three
+ * (sin(z) in f and f'', say) is worked out once, in order, into a pair of local doubles, and the lot is
+ * written out as the Java source of an evaluate() method. That's compiled with the JDK's compiler and loaded
+ * as a hidden class, so the JIT sees straight-line arithmetic on doubles, no different from an evaluator
+ * written by hand. Real constants are multiplied and added without their 0 imaginary parts, and whole number
+ * powers are multiplied out by repeated squaring.
+ *
+ * When there's no compiler (running on a JRE) or compiling fails, the same steps are run by a small
+ * interpreter instead, which gives exactly the same numbers but is a few times slower.
+ * */
+
+public class ExpressionCompiler {
+
+  //Evaluators already compiled, by source, so the same function isn't compiled twice in one JVM.
+  private static final Map<String, ComplexEvaluator> compiled = new HashMap<String, ComplexEvaluator>();
+
+  //The steps to work out f, fp and f2p: every distinct non-constant node, each after the nodes it uses.
+  //The ones only f2p needs come last, so they can be skipped when only f and f' are wanted.
+  static class Program {
+    final List<Expression.Node> steps = new ArrayList<Expression.Node>();
+    final Map<Expression.Node, Integer> index = new HashMap<Expression.Node, Integer>();
+    final int firstOrder;
+    final Expression.Node[] outputs;
+
+    Program(Expression.Node f, Expression.Node fp, Expression.Node f2p) {
+      add(f);
+      add(fp);
+      firstOrder = steps.size();
+      add(f2p);
+      outputs = new Expression.Node[] {f, fp, f2p};
+    }
+
+    private void add(Expression.Node node) {
+      if(node.isConst() || index.containsKey(node)) {
+        return;
+      }
+      if(node.a != null) {
+        add(node.a);
+      }
+      if(node.b != null) {
+        add(node.b);
+      }
+      index.put(node, steps.size());
+      steps.add(node);
+    }
+  }
+
+  //An evaluator for f and its derivatives fp and f2p: compiled if possible, otherwise interpreted.
+  public static ComplexEvaluator compile(Expression.Node f, Expression.Node fp, Expression.Node f2p) {
+    Program program = new Program(f, fp, f2p);
+    String source = source(program);
+    synchronized(compiled) {
+      ComplexEvaluator evaluator = compiled.get(source);
+      if(evaluator == null) {
+        try {
+          evaluator = define(source);
+        } catch(Exception | LinkageError x) {
+          System.out.println("Couldn't compile the function (" + x + "), interpreting it instead.");
+          evaluator = new Interpreter(program);
+        }
+        compiled.put(source, evaluator);
+      }
+      return evaluator;
+    }
+  }
+
+  //Just the interpreter, e.g. to check the compiled evaluator against.
+  public static ComplexEvaluator interpret(Expression.Node f, Expression.Node fp, Expression.Node f2p) {
+    return new Interpreter(new Program(f, fp, f2p));
+  }
+
+  //Java source of a class ExpressionKernel implementing ComplexEvaluator for program.
+  static String source(Program program) {
+    SourceWriter w = new SourceWriter(program);
+    StringBuilder s = new StringBuilder();
+    s.append("public final class ExpressionKernel implements ComplexEvaluator {\n");
+    s.append("  public void evaluate(double re, double im, int order, double[] out) {\n");
+    for(int n = 0; n < program.firstOrder; n++) {
+      w.step(n, s, "    ");
+    }
+    w.output(0, s, "    ");
+    w.output(1, s, "    ");
+    s.append("    if(order >= 2) {\n");
+    for(int n = program.firstOrder; n < program.steps.size(); n++) {
+      w.step(n, s, "      ");
+    }
+    w.output(2, s, "      ");
+    s.append("    }\n  }\n}\n");
+    return s.toString();
+  }
+
+  //Compile source in memory and load it as a hidden class next to this one.
+  private static ComplexEvaluator define(String source) throws Exception {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if(javac == null) {
+      throw new IllegalStateException("no Java compiler");
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    JavaFileObject input = new SimpleJavaFileObject(URI.create("string:///ExpressionKernel.java"),
+                                                    JavaFileObject.Kind.SOURCE) {
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(javac.getStandardFileManager(null, null, null)) {
+      public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                 FileObject sibling) {
+        return new SimpleJavaFileObject(URI.create("bytes:///" + className + ".class"), kind) {
+          public OutputStream openOutputStream() {
+            return bytes;
+          }
+        };
+      }
+    };
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    boolean ok = javac.getTask(new java.io.PrintWriter(errors, true), files, null,
+                               List.of("-classpath", System.getProperty("java.class.path"), "-g:none"), null,
+                               List.of(input)).call();
+    if(!ok) {
+      throw new IllegalStateException(errors.toString().trim());
+    }
+    MethodHandles.Lookup kernel = MethodHandles.lookup().defineHiddenClass(bytes.toByteArray(), true);
+    return (ComplexEvaluator) kernel.lookupClass().getDeclaredConstructor().newInstance();
+  }
+
+  //Writes the statements for each step of a Program. Step n goes into r<n> and i<n>.
+  private static class SourceWriter {
+    final Program program;
+    //Real sin, cos etc. already worked out, by call, so sin(z) and cos(z) don't both call Math.sin(re).
+    final Map<String, String> calls = new LinkedHashMap<String, String>();
+
+    SourceWriter(Program program) {
+      this.program = program;
+    }
+
+    //Re and im of node, as a variable or a literal.
+    String re(Expression.Node node) {
+      return node.isConst() ? literal(node.re) : node.op == Expression.Z ? "re" : "r" + program.index.get(node);
+    }
+
+    String im(Expression.Node node) {
+      return node.isConst() ? literal(node.im) : node.op == Expression.Z ? "im" : "i" + program.index.get(node);
+    }
+
+    static String literal(double v) {
+      if(Double.isNaN(v)) {
+        return "Double.NaN";
+      }
+      if(Double.isInfinite(v)) {
+        return v > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+      }
+      return v < 0 ? "(" + v + ")" : "" + v;
+    }
+
+    static boolean real(Expression.Node node) {
+      return node.isConst() && node.im == 0;
+    }
+
+    //Variable holding Math.<fn>(arg), declaring it first if it isn't yet.
+    String call(String fn, String arg, StringBuilder s, String indent) {
+      String key = fn + "(" + arg + ")";
+      String v = calls.get(key);
+      if(v == null) {
+        v = "m" + calls.size();
+        calls.put(key, v);
+        s.append(indent).append("double ").append(v).append(" = Math.").append(key).append(";\n");
+      }
+      return v;
+    }
+
+    void output(int part, StringBuilder s, String indent) {
+      Expression.Node node = program.outputs[part];
+      s.append(indent).append("out[").append(2 * part).append("] = ").append(re(node)).append(";\n");
+      s.append(indent).append("out[").append(2 * part + 1).append("] = ").append(im(node)).append(";\n");
+    }
+
+    void step(int n, StringBuilder s, String indent) {
+      Expression.Node node = program.steps.get(n);
+      if(node.op == Expression.Z) {
+        return;
+      }
+      Expression.Node a = node.a, b = node.b;
+      String ar = re(a), ai = im(a);
+      String br = b == null ? null : re(b), bi = b == null ? null : im(b);
+      String r, i;
+      //(Written with the same brackets as Expression.apply(), so the sums come out the same.)
+      switch(node.op) {
+        case Expression.ADD:
+        case Expression.SUB: {
+          String sign = node.op == Expression.ADD ? " + " : " - ";
+          r = ar + sign + br;
+          i = real(a) ? (node.op == Expression.ADD ? bi : "-" + bi) : real(b) ? ai : ai + sign + bi;
+          break;
+        }
+        case Expression.MUL:
+          if(real(a)) {
+            //(Leaving out the 0*x terms changes nothing unless x is infinite or NaN, and then the pixel's
+            //lost anyway.)
+            r = ar + " * " + br;
+            i = ar + " * " + bi;
+          } else {
+            r = "(" + ar + " * " + br + ") - (" + ai + " * " + bi + ")";
+            i = "(" + ar + " * " + bi + ") + (" + ai + " * " + br + ")";
+          }
+          break;
+        case Expression.DIV: {
+          String d = "d" + n;
+          s.append(indent).append("double ").append(d).append(" = (").append(br).append(" * ").append(br)
+            .append(") + (").append(bi).append(" * ").append(bi).append(");\n");
+          r = "((" + ar + " * " + br + ") + (" + ai + " * " + bi + ")) / " + d;
+          i = "((" + ai + " * " + br + ") - (" + ar + " * " + bi + ")) / " + d;
+          break;
+        }
+        case Expression.NEG:
+          r = "-" + ar;
+          i = "-" + ai;
+          break;
+        case Expression.POWI: {
+          //Repeated squaring, lowest bit first, the same as Expression.apply().
+          int m = Math.abs(node.n);
+          String pr = null, pi = null;
+          String sr = ar, si = ai;
+          for(int step = 0; ; step++) {
+            if((m & 1) != 0) {
+              if(pr == null) {
+                pr = sr;
+                pi = si;
+              } else {
+                String tr = "p" + n + "_" + step + "r", ti = "p" + n + "_" + step + "i";
+                s.append(indent).append("double ").append(tr).append(" = (").append(pr).append(" * ").append(sr)
+                  .append(") - (").append(pi).append(" * ").append(si).append(");\n");
+                s.append(indent).append("double ").append(ti).append(" = (").append(pr).append(" * ").append(si)
+                  .append(") + (").append(pi).append(" * ").append(sr).append(");\n");
+                pr = tr;
+                pi = ti;
+              }
+            }
+            m >>>= 1;
+            if(m == 0) {
+              break;
+            }
+            String qr = "s" + n + "_" + step + "r", qi = "s" + n + "_" + step + "i";
+            s.append(indent).append("double ").append(qr).append(" = (").append(sr).append(" * ").append(sr)
+              .append(") - (").append(si).append(" * ").append(si).append(");\n");
+            s.append(indent).append("double ").append(qi).append(" = 2 * ").append(sr).append(" * ").append(si)
+              .append(";\n");
+            sr = qr;
+            si = qi;
+          }
+          if(node.n < 0) {
+            String d = "d" + n;
+            s.append(indent).append("double ").append(d).append(" = (").append(pr).append(" * ").append(pr)
+              .append(") + (").append(pi).append(" * ").append(pi).append(");\n");
+            r = pr + " / " + d;
+            i = "-" + pi + " / " + d;
+          } else {
+            r = pr;
+            i = pi;
+          }
+          break;
+        }
+        case Expression.SIN:
+          r = call("sin", ar, s, indent) + " * " + call("cosh", ai, s, indent);
+          i = call("cos", ar, s, indent) + " * " + call("sinh", ai, s, indent);
+          break;
+        case Expression.COS:
+          r = call("cos", ar, s, indent) + " * " + call("cosh", ai, s, indent);
+          i = "-(" + call("sin", ar, s, indent) + " * " + call("sinh", ai, s, indent) + ")";
+          break;
+        case Expression.EXP: {
+          String e = call("exp", ar, s, indent);
+          r = e + " * " + call("cos", ai, s, indent);
+          i = e + " * " + call("sin", ai, s, indent);
+          break;
+        }
+        case Expression.LOG:
+          r = "0.5 * Math.log((" + ar + " * " + ar + ") + (" + ai + " * " + ai + "))";
+          i = "Math.atan2(" + ai + ", " + ar + ")";
+          break;
+        case Expression.SQRT: {
+          String t = "t" + n;
+          s.append(indent).append("double ").append(t).append(" = Math.sqrt((Math.abs(").append(ar)
+            .append(") + Math.sqrt((").append(ar).append(" * ").append(ar).append(") + (").append(ai).append(" * ")
+            .append(ai).append("))) / 2);\n");
+          r = t + " == 0 ? 0 : " + ar + " >= 0 ? " + t + " : Math.abs(" + ai + ") / (2 * " + t + ")";
+          i = t + " == 0 ? 0 : " + ar + " >= 0 ? " + ai + " / (2 * " + t + ") : Math.copySign(" + t + ", " + ai + ")";
+          break;
+        }
+        case Expression.SINH:
+          r = call("sinh", ar, s, indent) + " * " + call("cos", ai, s, indent);
+          i = call("cosh", ar, s, indent) + " * " + call("sin", ai, s, indent);
+          break;
+        case Expression.COSH:
+          r = call("cosh", ar, s, indent) + " * " + call("cos", ai, s, indent);
+          i = call("sinh", ar, s, indent) + " * " + call("sin", ai, s, indent);
+          break;
+        default:
+          throw new IllegalArgumentException("Can't compile node type " + node.op);
+      }
+      s.append(indent).append("double r").append(n).append(" = ").append(r).append(";\n");
+      s.append(indent).append("double i").append(n).append(" = ").append(i).append(";\n");
+    }
+  }
+
+  //Runs a Program step by step with Expression.apply(), for when it can't be compiled.
+  static class Interpreter implements ComplexEvaluator {
+    private final int[] ops;
+    private final int[] powers;
+    private final int firstOrder;
+    //Where each step's operands and each output come from: the value of step n is at 2n, 2n + 1 of the
+    //values array, z is at the end, and constants are put after that.
+    private final int[] a;
+    private final int[] b;
+    private final int[] outputs;
+    private final double[] initial;
+    private final ThreadLocal<double[]> values;
+
+    Interpreter(Program program) {
+      int count = program.steps.size();
+      ops = new int[count];
+      powers = new int[count];
+      a = new int[count];
+      b = new int[count];
+      firstOrder = program.firstOrder;
+      List<Double> constants = new ArrayList<Double>();
+      for(int n = 0; n < count; n++) {
+        Expression.Node node = program.steps.get(n);
+        ops[n] = node.op;
+        powers[n] = node.n;
+        a[n] = node.a == null ? 0 : slot(program, node.a, constants);
+        b[n] = node.b == null ? 0 : slot(program, node.b, constants);
+      }
+      outputs = new int[3];
+      for(int part = 0; part < 3; part++) {
+        outputs[part] = slot(program, program.outputs[part], constants);
+      }
+      initial = new double[2 * count + 2 + constants.size()];
+      for(int c = 0; c < constants.size(); c++) {
+        initial[2 * count + 2 + c] = constants.get(c);
+      }
+      values = ThreadLocal.withInitial(initial::clone);
+    }
+
+    private static int slot(Program program, Expression.Node node, List<Double> constants) {
+      int count = program.steps.size();
+      if(node.isConst()) {
+        constants.add(node.re);
+        constants.add(node.im);
+        return 2 * count + constants.size();
+      }
+      return node.op == Expression.Z ? 2 * count : 2 * program.index.get(node);
+    }
+
+    //Whether slot holds a constant with no imaginary part.
+    private boolean real(int slot) {
+      return slot > ops.length * 2 && initial[slot + 1] == 0;
+    }
+
+    public void evaluate(double re, double im, int order, double[] out) {
+      double[] v = values.get();
+      int z = 2 * ops.length;
+      v[z] = re;
+      v[z + 1] = im;
+      int count = order >= 2 ? ops.length : firstOrder;
+      for(int n = 0; n < count; n++) {
+        int op = ops[n];
+        if(op == Expression.Z) {
+          continue;
+        }
+        int x = a[n], y = b[n];
+        if(op == Expression.MUL && real(x)) {
+          //(The same shortcut as the compiled version.)
+          v[2*n] = v[x] * v[y];
+          v[2*n + 1] = v[x] * v[y + 1];
+        } else {
+          Expression.apply(op, v[x], v[x + 1], v[y], v[y + 1], powers[n], out);
+          v[2*n] = out[0];
+          v[2*n + 1] = out[1];
+        }
+      }
+      for(int part = (order >= 2 ? 2 : 1); part >= 0; part--) {
+        out[2*part] = v[outputs[part]];
+        out[2*part + 1] = v[outputs[part] + 1];
+      }
+    }
+  }
+}
@@ -9,17 +9,16 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import javax.imageio.ImageIO;
 import java.lang.Math;
-import java.util.function.UnaryOperator;
 import java.util.ArrayList;
 
 /*Instructions for Use
- * In Complex.java: 
- *    Set f, fp (f'), and f2p (f'') to represent the desired functions. 
- * 
  * In the application: 
+ *    Set the coefficients of a polynomial, or write the desired function with HyperDual (which works out
+ *    f' and f'' for you). 
+ *    (Or give the function as an argument instead: java HalleyCImageMaker "z^5 - 3*sin(z) + 1")
  *    Set desired image dimensions and window bounds. 
  * 
- *    In testBasin(), set roots of the function. (If function has infinite roots,
+ *    In basinArray, set roots of the function. (If function has infinite roots,
  * try setting the ones closest to the window.) If you add more roots, 
  * enlarge the col[] matrix in the application accordingly (increasing the length
  * will add random colors out to col.length). 
@@ -31,18 +30,56 @@ public class HalleyCImageMaker {
   
     public static void main(String[] args) {
     
+    //For very large images (like prints), set streamOutput to true. The PNG is then rendered and written
+    //a band of rows at a time, so the whole image never has to fit in memory.
+    boolean streamOutput = false;
+    
+    //Set adaptive to true to skip solving the insides of areas where every pixel converges to the same
+    //root in the same number of iterations (give or take adaptiveTolerance). Much faster for images with
+    //big smooth areas, and with adaptiveTolerance = 0 the image is almost always exactly the same.
+    boolean adaptive = false;
+    int adaptiveTolerance = 0;
+    
+    //Set detectCycles to true to give up on points as soon as they're caught going round a cycle instead of
+    //iterating them to maxIterations (see IterativeMethod.cycling()) - for functions with attracting cycles,
+    //like z^3 - 2z + 2, especially with a big maxIterations (it costs about 10% when there aren't any). They're
+    //drawn in their own "cycle" color (the one after the extra basin's) instead of the extra basin's.
+    boolean detectCycles = false;
+    
+    //Set the iteration budget: give up on a point after maxIterations, and count it as converged once a step
+    //is smaller than tolerance. The stats printed after each render (see printStats) show how many pixels
+    //ran out of iterations, which is the thing to look at before raising maxIterations.
+    int maxIterations = HalleysMethod.N;
+    double tolerance = HalleysMethod.TOL;
+    
+    //Set printStats to true to print a histogram of iterations per pixel, the number of pixels that didn't
+    //converge, the time each stage took, pixels per second and a suggested alphaFactor after each render
+    //(see RenderStats).
+    boolean printStats = true;
+    
     //Set image dimensions.
     int ImageXDim = 500;
     int ImageYDim = 400;
     
-    //Set function and its derivative (check Complex() for complex arithmetic)
-    UnaryOperator<Complex> f = (a) -> { return a.pow(3).minus(a);};
-    UnaryOperator<Complex> fp = (a) -> {return a.pow(2).times(3).minus(1);};
-    UnaryOperator<Complex> f2p = (a) -> {return a.times(6);};
-    
-    Complex.setF(f);
-    Complex.setFPrime(fp);
-    Complex.setF2Prime(f2p);
+    //Set the function. Polynomials are given by their coefficients, lowest power first, and
+    //f' and f'' come from Horner's rule along with f - this one is z^3 - z.
+    //For a function that isn't a polynomial, write it with HyperDual arithmetic (the same as Complex)
+    //instead. f' and f'' are worked out along with f in one go, so there are no derivatives to get wrong and
+    //each step of Halley's method only evaluates the function once, e.g.
+    //  ComplexFunction fn = HyperDual.toFunction(z -> z.sin().minus(z.times(0.5)), 1);
+    //Or type the function in instead of changing the code: run with it as an argument, e.g.
+    //  java HalleyCImageMaker "z^5 - 3*sin(z) + 1"
+    //(see Expression for what it can use). f' and f'' are worked out from it, and the roots are found for
+    //you (see findRoots below).
+    String expression = args.length > 0 ? args[0] : null;
+    ComplexFunction fn;
+    try {
+      fn = expression != null ? Expression.parse(expression).toFunction(1) : new Polynomial(0, -1, 0, 1).toFunction(1);
+    } catch(IllegalArgumentException x) {
+      System.out.println(x.getMessage());
+      return;
+    }
+    HalleysMethod solver = new HalleysMethod(fn, maxIterations, tolerance, detectCycles);
     
     //Roots of f() above.
     ArrayList<Complex> basinArray = new ArrayList<Complex>();
@@ -57,21 +94,33 @@ public class HalleyCImageMaker {
     double WindowYLowBound = -0.5;
     double WindowYHiBound = 0.5;
     
+    //Set findRoots to true to find the roots automatically instead of listing them in basinArray - for
+    //functions with lots of roots, like sin(). Halley's method is run from a sparse grid of points over the window
+    //and every point it converges to becomes a root (see RootFinder). Roots with tiny basins that the grid
+    //misses are drawn in the "extra" color.
+    boolean findRoots = false;
+    if(findRoots || expression != null) {
+      Window grid = new Window(WindowXLowBound, WindowXHiBound, WindowYLowBound, WindowYHiBound,
+                               ImageXDim, ImageYDim);
+      basinArray = new ArrayList<Complex>(new RootFinder(solver).find(grid, 160, 90, BasinSampler.MATCH_RADIUS));
+      System.out.println("Found " + basinArray.size() + " roots: " + basinArray);
+    }
+    
     //Set alphaFactor so that the maximum iterations from NFPIMethod.java times the 
-    //alphaFactor is approximately 255 (the maximum opaqueness).
+    //alphaFactor is approximately 255 (the maximum opaqueness). The stats printed after a
+    //render suggest one from the iterations the pixels actually took.
     int alphaFactor = 20;
     
     //Define some color integers to use in the rendered image. After the 6th color
     //they are randomly generated. 
-    BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
     int colSize = 0;
     
-    //(Set random colors until basinArray is exhausted. Set minimum colors to 6 to avoid
-    // array out of bounds exception.)
-    if(basinArray.size() < 6) {
+    //(Set random colors until basinArray is exhausted, plus one for the extra basin and one for
+    // cycles. Set minimum colors to 6 to avoid array out of bounds exception.)
+    if(basinArray.size() < 5) {
       colSize = 6; 
     } else {
-      colSize = basinArray.size() + 1;
+      colSize = basinArray.size() + 2;
     }
     
     int[] col = new int[colSize];
@@ -115,67 +164,55 @@ public class HalleyCImageMaker {
     
     
     
-    //Initialize a Complex object to represent each pixel.
-    Complex pixel = new Complex(0,0);
-    //Initialize color integer.
-    int thisColor = 0;
-    //For each pixel in the image...
-    for(int i = 0; i < ImageXDim; i++) {
-      for(int j = ImageYDim-1; j > -1; j--) {
-        //Set pixel coordinates based on window dimensions. (Note Y coordinate is reversed because
-        //the top of the image is actually y=0, not y=WindowYHiBound.)
-        pixel.setDoubles( ((double)i/ImageXDim)*(WindowXHiBound-WindowXLowBound) + WindowXLowBound,
-                         (1 -((double)j/ImageYDim))*(WindowYHiBound-WindowYLowBound) + WindowYLowBound);
-        //Figure out which color to set the pixel to.
-        thisColor = col[testBasin(pixel, basinArray)];
-        //Then set the alpha based on how many iterations it took for the pixel to converge.
-        int alpha;
-        if(HalleysMethod.i * alphaFactor <= 255) {
-          alpha = HalleysMethod.i * alphaFactor;
-        } else {
-          //Just in case I set the alphaFactor badly and get a number over 255.
-          alpha = 255;
-        }
-        //Add alpha value to the color by bit-shifting it and combining the binary numbers
-        //with a bitwise OR operation. 
-        thisColor = ( alpha << 24) | thisColor;
-        //Set the pixel to the color, and move on to the next pixel.
-        img.setRGB(i, j, thisColor);
-      }
-    }
+    //Work out which basin each pixel of the window is in and how many iterations it took, and color
+    //it with col[] and alphaFactor. The tiles are spread over all cores by the RenderEngine.
+    Window window = new Window(WindowXLowBound, WindowXHiBound, WindowYLowBound, WindowYHiBound,
+                               ImageXDim, ImageYDim);
+    BasinSampler sampler = new BasinSampler(solver, basinArray, window);
+    Palette palette = new Palette(col, alphaFactor);
+    RenderEngine engine = new RenderEngine();
     
-    //Write the BufferedImage to file and output filename to console.
+    //Find an unused file name, then render the image and write it to file.
     int k = 0;
     File output = new File("h_img" + k + ".png");
     while(output.exists()) {
       k++;
       output = new File("h_img" + k + ".png");
     }
+    RenderStats stats = new RenderStats(solver, basinArray.size());
+    RenderEngine.Sampler counted = stats.counting(sampler);
+    long t = System.nanoTime();
     try {
-      ImageIO.write(img, "PNG", output);
+      if(streamOutput) {
+        //(Solving, coloring and writing all happen together here.)
+        engine.renderPng(ImageXDim, ImageYDim, palette.shader(counted), output, 64);
+        stats.stage("render", t);
+      } else if(adaptive) {
+        int[] samples = new int[ImageXDim * ImageYDim];
+        long skipped = engine.sampleAdaptive(ImageXDim, ImageYDim, sampler, adaptiveTolerance, samples);
+        System.out.println("Filled in " + skipped + " of " + (long)ImageXDim * ImageYDim + " pixels without solving.");
+        t = stats.stage("solve", t);
+        stats.count(samples);
+        BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+        palette.paint(samples, img);
+        t = stats.stage("color", t);
+        ImageIO.write(img, "PNG", output);
+        stats.stage("write", t);
+      } else {
+        BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+        engine.render(img, palette.shader(counted));
+        t = stats.stage("render", t);
+        ImageIO.write(img, "PNG", output);
+        stats.stage("write", t);
+      }
     } catch(Exception x) {
       System.out.println(x);
     }
+    if(printStats) {
+      System.out.print(stats.report());
+    }
     System.out.println("Image successfully output to h_img" + k + ".png.");
     
   }
   
-  public static int testBasin(Complex a, ArrayList<Complex> basinArray) {   
-    
-    //Run the iteration, and compare to each basin. 
-    //I compare within 0.01 because TOL = 0.01.
-    Complex aIter = HalleysMethod.hm(a);
-    for(int i = 0; i < basinArray.size(); i++) {
-      if( aIter.minus(basinArray.get(i)).abs() < 0.01) {
-        //Return the number of the root that it matched.
-        return i;
-      }
-    }
-    //If a match isn't found, return the length of the array - which is what the next
-    //root would be if there was one. Thus all points that don't converge, cyclical 
-    //patterns that don't end up at one root or another, etc end up colored with an 
-    //"extra" color.
-    return basinArray.size();   
-  }
-  
 }
\ No newline at end of file
@@ -2,50 +2,185 @@
  * April 2017
  * 
  * Implements Halley's iterative method for root finding on complex numbers. Works with Complex class. 
- * Public static variable i holds number of iterations to convergence. TOL can be adjusted manually.
+ * solve() returns the number of iterations to convergence along with the result, so one HalleysMethod
+ * can be shared by several threads. N and TOL can be set for each solver (see the second constructor).
  * */
 
 import java.lang.Math;
 
-public class HalleysMethod {
+public class HalleysMethod implements IterativeMethod {
   
-  public static int i;
+  //Default max number of iterations before we should give up :(
+  public static final int N = 25;
+  //Default tolerance: iteration stops once a step is smaller than this.
+  public static final double TOL = 0.0001;
   
-  public static Complex hm(Complex p0) {
+  private final ComplexFunction fn;
+  private final int maxIterations;
+  private final double tol;
+  private final boolean cycles;
+  
+  public HalleysMethod(ComplexFunction fn) {
+    this(fn, N, TOL);
+  }
+  
+  public HalleysMethod(ComplexFunction fn, int maxIterations, double tol) {
+    this(fn, maxIterations, tol, false);
+  }
+  
+  //Give up after maxIterations, and stop once a step is smaller than tol. Non-converged points come out
+  //with maxIterations + 1 iterations, which has to fit in a sample (see BasinSampler), so maxIterations
+  //can be at most 65534. With detectCycles, points caught in a cycle are given up on as soon as it's spotted
+  //(see IterativeMethod.cycling()) - they come out the same as after running out of iterations, except
+  //that SolveResult.isCycle() is true.
+  public HalleysMethod(ComplexFunction fn, int maxIterations, double tol, boolean detectCycles) {
+    if(maxIterations < 1 || maxIterations > 65534) {
+      throw new IllegalArgumentException("maxIterations has to be between 1 and 65534, not " + maxIterations);
+    }
+    if(!(tol > 0)) {
+      throw new IllegalArgumentException("tol has to be more than 0, not " + tol);
+    }
+    this.fn = fn;
+    this.maxIterations = maxIterations;
+    this.tol = tol;
+    this.cycles = detectCycles;
+  }
+  
+  public ComplexFunction getFunction() {
+    return fn;
+  }
+  
+  public int getMaxIterations() {
+    return maxIterations;
+  }
+  
+  public double getTolerance() {
+    return tol;
+  }
+  
+  public boolean detectsCycles() {
+    return cycles;
+  }
+  
+  public SolveResult solve(Complex p0) {
     //Index at which to start iteration
-    i = 1; 
+    int i = 1; 
     
     //Set both p's to be equal for the time being
     Complex p1 = p0;
     
-    //Max number of iterations before we should give up :(
-    int N = 25;
     //Bool to control whether the code continues
     boolean cont = true; 
-    final double TOL = 0.0001;
+    
+    //Iterate saved for cycle detection, and the iteration at which to save the next one
+    Complex saved = p0;
+    int save = 1;
     
     do {
       //Update p (using h() instead of N())
-      p1 = p0.h();
+      p1 = p0.h(fn);
       
       //Print the new guess with the index
       //System.out.println("P: " + p1 + "   i: " + i);
       
       //Check if tolerance has been met
-      if( (p1.minus(p0)).abs() < TOL) {
-        return p1;
+      if( (p1.minus(p0)).abs() < tol) {
+        return new SolveResult(p1, i, true);
+      }
+      //Check if we're going round in circles (same arithmetic as the doubles version below)
+      if(cycles) {
+        double da = p1.getA() - p0.getA(), db = p1.getB() - p0.getB();
+        double ca = p1.getA() - saved.getA(), cb = p1.getB() - saved.getB();
+        if(IterativeMethod.cycling((ca*ca) + (cb*cb), (da*da) + (db*db), tol)) {
+          SolveResult r = new SolveResult();
+          r.set(p1.getA(), p1.getB(), maxIterations + 1, false, true);
+          return r;
+        }
+        if(i == save) {
+          saved = p1;
+          save *= 2;
+        }
       }
       //Update p0
       p0 = p1;
       //Increment i
       i++;
       //Check if we've done this too many times and should give up
-      if( i > N) {
-        return p1;
+      if( i > maxIterations) {
+        return new SolveResult(p1, i, false);
       }
       
       //Check if we should stop for one reason or the other
     } while(cont);
-    return new Complex(0,0);
+    return new SolveResult(new Complex(0,0), i, false);
+  }
+  
+  //Same iteration as above on doubles, writing into out. Each step does exactly the arithmetic of
+  //Complex.h(), so the result is identical to the Complex version, but no objects are created.
+  public void solve(double re, double im, SolveResult out) {
+    ComplexEvaluator eval = fn.getEvaluator();
+    if(eval == null) {
+      //No evaluator for this function, so go through the Complex lambdas.
+      SolveResult r = solve(new Complex(re, im));
+      out.set(r.getRe(), r.getIm(), r.getIterations(), r.isConverged(), r.isCycle());
+      return;
+    }
+    double[] w = out.work;
+    
+    int i = 1;
+    //Iterate saved for cycle detection, and the iteration at which to save the next one
+    double sre = re, sim = im;
+    int save = 1;
+    
+    while(true) {
+      eval.evaluate(re, im, 2, w);
+      double fa = w[0], fb = w[1], da = w[2], db = w[3], sa = w[4], sb = w[5];
+      //Numerator: f*2*f'
+      double ta = 2*fa;
+      double tb = 2*fb;
+      double na = (ta * da) - (tb * db);
+      double nb = (tb * da) + (ta * db);
+      //Denominator: f'^2*2 - f*f''. (f'^2 starts from 1 + 0i like Complex.pow() does.)
+      double pa = (1 * da) - (0 * db);
+      double pb = (0 * da) + (1 * db);
+      double p2a = (pa * da) - (pb * db);
+      double p2b = (pb * da) + (pa * db);
+      double ma = (2*p2a) - ((fa * sa) - (fb * sb));
+      double mb = (2*p2b) - ((fb * sa) + (fa * sb));
+      //Divide, as in Complex.over()
+      double numerator = (na * ma) + (nb * mb);
+      double denominator = (ma * ma) + (mb * mb);
+      double qa = numerator/denominator;
+      numerator = (nb * ma) - (na * mb);
+      double qb = numerator/denominator;
+      double re1 = re - qa;
+      double im1 = im - qb;
+      
+      double dx = re1 - re;
+      double dy = im1 - im;
+      re = re1;
+      im = im1;
+      if(Math.sqrt( (dx*dx) + (dy*dy) ) < tol) {
+        out.set(re, im, i, true);
+        return;
+      }
+      if(cycles) {
+        double ca = re - sre, cb = im - sim;
+        if(IterativeMethod.cycling((ca*ca) + (cb*cb), (dx*dx) + (dy*dy), tol)) {
+          out.set(re, im, maxIterations + 1, false, true);
+          return;
+        }
+        if(i == save) {
+          sre = re;
+          sim = im;
+          save *= 2;
+        }
+      }
+      i++;
+      if( i > maxIterations) {
+        out.set(re, im, i, false);
+        return;
+      }
+    }
   }
-}
\ No newline at end of file
+}
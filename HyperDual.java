@@ -0,0 +1,191 @@
+import java.util.function.UnaryOperator;
+
+/* A complex number together with its first and second derivatives with respect to z, for getting f' and f''
+ * without working them out by hand. Write f with HyperDual arithmetic, which has the same operations as
+ * Complex, e.g.
+ *
+ *    z -> z.pow(5).minus(z.sin().times(3)).plus(1)
+ *
+ * and apply it to HyperDual.variable(z): every operation carries the derivatives along by the chain rule
+ * (forward mode automatic differentiation), so one pass gives f(z), f'(z) and f''(z) together, exactly, with
+ * nothing written twice.
+ *
+ * (A hyper-dual number is a + b*e1 + c*e2 + d*e1*e2 with e1^2 = e2^2 = 0. For a function of the one variable
+ * z, b and c are both f' and d is f'', so only the three different parts are kept.)
+ *
+ * When only f' is wanted (Newton's method), start from variable(z, false): the second derivative is then
+ * left null all the way through and never worked out.
+ * */
+
+public class HyperDual {
+
+  private final Complex value;
+  private final Complex first;
+  //(null if second derivatives aren't being worked out)
+  private final Complex second;
+
+  public HyperDual(Complex value, Complex first, Complex second) {
+    this.value = value;
+    this.first = first;
+    this.second = second;
+  }
+
+  //z itself (derivative 1).
+  public static HyperDual variable(Complex z) {
+    return variable(z, true);
+  }
+
+  //z itself, working out second derivatives only if second is true.
+  public static HyperDual variable(Complex z, boolean second) {
+    return new HyperDual(z, new Complex(1, 0), second ? new Complex(0, 0) : null);
+  }
+
+  //A number that doesn't depend on z (derivatives 0).
+  public static HyperDual constant(Complex c) {
+    return new HyperDual(c, new Complex(0, 0), new Complex(0, 0));
+  }
+
+  //A ComplexEvaluator for f: each call applies f once, for f, f' and f'' together.
+  public static ComplexEvaluator evaluator(UnaryOperator<HyperDual> f) {
+    return (re, im, order, out) -> {
+      HyperDual r = f.apply(variable(new Complex(re, im), order >= 2));
+      out[0] = r.value.getA();
+      out[1] = r.value.getB();
+      out[2] = r.first.getA();
+      out[3] = r.first.getB();
+      if(order >= 2) {
+        out[4] = r.second.getA();
+        out[5] = r.second.getB();
+      }
+    };
+  }
+
+  //A ComplexFunction for f, for NFPIMethod or HalleysMethod. f, fprime and f2prime each apply f, but the
+  //solvers go through evaluator(f), so each step only applies it once.
+  public static ComplexFunction toFunction(UnaryOperator<HyperDual> f, double k) {
+    return new ComplexFunction(z -> f.apply(variable(z, false)).value, z -> f.apply(variable(z, false)).first,
+                               z -> f.apply(variable(z)).second, evaluator(f), k);
+  }
+
+  public Complex getValue() {
+    return value;
+  }
+
+  public Complex getFirst() {
+    return first;
+  }
+
+  //(null if this came from variable(z, false))
+  public Complex getSecond() {
+    return second;
+  }
+
+  //Whether both this and o have second derivatives.
+  private boolean second(HyperDual o) {
+    return second != null && o.second != null;
+  }
+
+  public HyperDual plus(HyperDual o) {
+    return new HyperDual(value.plus(o.value), first.plus(o.first), second(o) ? second.plus(o.second) : null);
+  }
+
+  public HyperDual plus(Complex c) {
+    return new HyperDual(value.plus(c), first, second);
+  }
+
+  public HyperDual plus(double c) {
+    return new HyperDual(value.plus(c), first, second);
+  }
+
+  public HyperDual minus(HyperDual o) {
+    return new HyperDual(value.minus(o.value), first.minus(o.first), second(o) ? second.minus(o.second) : null);
+  }
+
+  public HyperDual minus(Complex c) {
+    return new HyperDual(value.minus(c), first, second);
+  }
+
+  public HyperDual minus(double c) {
+    return new HyperDual(value.minus(c), first, second);
+  }
+
+  public HyperDual opposite() {
+    return new HyperDual(value.opposite(), first.opposite(), second != null ? second.opposite() : null);
+  }
+
+  //(uv)' = u'v + uv', (uv)'' = u''v + 2u'v' + uv''
+  public HyperDual times(HyperDual o) {
+    return new HyperDual(value.times(o.value),
+                         first.times(o.value).plus(value.times(o.first)),
+                         second(o) ? second.times(o.value).plus(first.times(o.first).times(2))
+                                       .plus(value.times(o.second)) : null);
+  }
+
+  public HyperDual times(Complex c) {
+    return new HyperDual(value.times(c), first.times(c), second != null ? second.times(c) : null);
+  }
+
+  public HyperDual times(double c) {
+    return new HyperDual(value.times(c), first.times(c), second != null ? second.times(c) : null);
+  }
+
+  //With q = u/v: q' = (u' - qv')/v and q'' = (u'' - 2q'v' - qv'')/v.
+  public HyperDual over(HyperDual o) {
+    Complex q = value.over(o.value);
+    Complex q1 = first.minus(q.times(o.first)).over(o.value);
+    if(!second(o)) {
+      return new HyperDual(q, q1, null);
+    }
+    Complex q2 = second.minus(q1.times(o.first).times(2)).minus(q.times(o.second)).over(o.value);
+    return new HyperDual(q, q1, q2);
+  }
+
+  public HyperDual over(Complex c) {
+    return new HyperDual(value.over(c), first.over(c), second != null ? second.over(c) : null);
+  }
+
+  //this^i for any whole number i (negative ones too, unlike Complex.pow()).
+  public HyperDual pow(int i) {
+    if(i < 0) {
+      return constant(new Complex(1, 0)).over(pow(-i));
+    }
+    if(i == 0) {
+      return constant(new Complex(1, 0));
+    }
+    if(i == 1) {
+      return this;
+    }
+    //z^i, i*z^(i-1) and i(i-1)*z^(i-2) from one set of multiplications.
+    Complex p2 = value.pow(i - 2);
+    Complex p1 = p2.times(value);
+    return chain(p1.times(value), p1.times(i), p2.times((double) i * (i - 1)));
+  }
+
+  public HyperDual sin() {
+    Complex s = value.sin();
+    Complex c = value.cos();
+    return chain(s, c, s.opposite());
+  }
+
+  public HyperDual cos() {
+    Complex s = value.sin();
+    Complex c = value.cos();
+    return chain(c, s.opposite(), c.opposite());
+  }
+
+  public HyperDual exp() {
+    double e = Math.exp(value.getA());
+    Complex x = new Complex(e * Math.cos(value.getB()), e * Math.sin(value.getB()));
+    return chain(x, x, x);
+  }
+
+  //g(this), given g, g' and g'' at the value: (g(u))' = g'(u)u' and (g(u))'' = g''(u)u'^2 + g'(u)u''.
+  private HyperDual chain(Complex g, Complex g1, Complex g2) {
+    return new HyperDual(g, g1.times(first),
+                         second != null ? g2.times(first.times(first)).plus(g1.times(second)) : null);
+  }
+
+  public String toString() {
+    return "(" + value + ", f' = " + first + ", f'' = " + second + ")";
+  }
+}
@@ -0,0 +1,45 @@
+/* A root finding method that can be run from any starting point. Implementations hold their function as
+ * instance state and keep nothing else between calls, so solve() can be called from several threads at once.
+ * */
+
+public interface IterativeMethod {
+  
+  //Iterate from p0 until convergence to TOL or until giving up.
+  SolveResult solve(Complex p0);
+  
+  //Same as above, starting from re + im*i and writing into out. Doesn't create any objects if the
+  //function has a ComplexEvaluator, so each thread can reuse one SolveResult for every pixel.
+  void solve(double re, double im, SolveResult out);
+  
+  //The function being solved.
+  ComplexFunction getFunction();
+  
+  //Iterations are given up on after this many.
+  int getMaxIterations();
+  
+  //Iteration stops once a step is smaller than this.
+  double getTolerance();
+  
+  //Whether points caught in cycles are given up on as soon as they're spotted, instead of after the maximum
+  //iterations (see cycling()). Methods that don't look for cycles can leave this as it is.
+  default boolean detectsCycles() {
+    return false;
+  }
+  
+  //How much closer than tol (and than its last step) a point has to come back to count as cycling.
+  double CYCLE_RATIO = 100;
+  
+  //Brent's check for an attracting cycle: the solvers save the starting point and then the iterates at
+  //iterations 1, 2, 4, 8, ..., and compare every iterate to the last one saved, so a cycle of any period p
+  //is caught within about 2p iterations of the orbit settling onto it. back2 is the squared distance from
+  //the saved iterate and step2 the squared length of the last step. The point is cycling if it's back
+  //CYCLE_RATIO times closer than tol to the saved one, and CYCLE_RATIO times closer than the step it just
+  //took. A point creeping up on a root only gets that close to an earlier iterate by taking steps about as
+  //short, even if it overshoots the root every step (unless k is within a hair of 0.5, where it really does
+  //go round the root forever). Being that much closer than tol keeps out points that just pass near a
+  //repelling cycle on their way to a root, which could otherwise look the same for a few iterations.
+  static boolean cycling(double back2, double step2, double tol) {
+    double scaled = back2 * (CYCLE_RATIO * CYCLE_RATIO);
+    return scaled < tol*tol && scaled < step2;
+  }
+}
@@ -0,0 +1,122 @@
+/* Outputs the frames of an animation sweeping k (see paper) from one value to another, k_00000.png,
+ * k_00001.png ..., into a directory. All the frames are solved together in one pass over the image instead
+ * of as separate renders: f and f' at each pixel are worked out once and shared by the first step of every
+ * frame (see BatchNewton.solveRowSweep()), and the tiles of all the frames are spread over every core.
+ * Coloring and writing frames happens on another thread while the next frames are solved.
+ * */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/*Instructions for Use
+ *
+ * Set the polynomial and its roots the same way as in ComplexImageMaker (k sweeps only work for polynomials,
+ * with Newton's method), then the window, the range of k and the number of frames below. Run the application;
+ * the frames are output into the sweep directory, ready for e.g.
+ *
+ *    ffmpeg -framerate 30 -i sweep/k_%05d.png sweep.mp4
+ *
+ * Each frame is exactly the same as rendering that k on its own with ComplexImageMaker. Frames are solved
+ * sweepBytes worth at a time (the samples of a 1920x1080 frame take 8 MB), so lower it if memory is short.
+ */
+
+public class KSweepAnimator {
+
+  public static void main(String[] args) {
+
+    //Set frame dimensions, the range of k and the number of frames.
+    int ImageXDim = 1280;
+    int ImageYDim = 720;
+    double kFrom = 0.5;
+    double kTo = 1;
+    int frames = 60;
+    long sweepBytes = 256L << 20;
+    File outDir = new File("sweep");
+
+    //Set the polynomial (coefficients lowest power first - this one is z^3 - z) and its roots.
+    Polynomial poly = new Polynomial(0, -1, 0, 1);
+    ArrayList<Complex> basinArray = new ArrayList<Complex>();
+    basinArray.add(new Complex(1, 0));
+    basinArray.add(new Complex(0, 0));
+    basinArray.add(new Complex(-1, 0));
+
+    //Set window bounds. Note that WindowYLowBound is actually the top edge of the screen.
+    Window window = new Window(-2, 2, -1.125, 1.125, ImageXDim, ImageYDim);
+
+    //Set alphaFactor and colors (one for each root, plus one for points that don't converge).
+    int alphaFactor = 10;
+    int[] col = new int[Math.max(6, basinArray.size() + 1)];
+    col[0] = (255 << 16) | (0 << 8) | 0;
+    col[1] = (255 << 16) | (127 << 8) | 0;
+    col[2] = (255 << 16) | (255 << 8) | 0;
+    col[3] = (0 << 16) | (255 << 8) | 0;
+    col[4] = (0 << 16) | (0 << 8) | 255;
+    col[5] = (143 << 16) | (0 << 8) | 255;
+    for(int i = 6; i < col.length; i++) {
+      col[i] = ((int) (Math.random()*255) << 16) | ((int) (Math.random()*255) << 8) | (int) (Math.random()*255);
+    }
+
+    if(!outDir.isDirectory() && !outDir.mkdirs()) {
+      System.out.println("Can't make " + outDir);
+      return;
+    }
+    double[] ks = new double[frames];
+    for(int f = 0; f < frames; f++) {
+      ks[f] = frames > 1 ? kFrom + (kTo - kFrom) * f / (frames - 1) : kFrom;
+    }
+    //(The k of the function itself doesn't matter, every k comes from ks.)
+    BasinSampler sampler = new BasinSampler(new NFPIMethod(poly.toFunction(1)), basinArray, window);
+    Palette palette = new Palette(col, alphaFactor);
+    RenderEngine engine = new RenderEngine();
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    //Frames are solved in groups that fit in half of sweepBytes, so one group can be written while the next
+    //is solved.
+    int pixels = ImageXDim * ImageYDim;
+    int group = (int) Math.max(1, Math.min(frames, sweepBytes / 2 / (4L * pixels)));
+    int[][][] samples = new int[2][group][pixels];
+    Future<?> pending = null;
+    long start = System.nanoTime();
+    try {
+      for(int g = 0; g * group < frames; g++) {
+        int f0 = g * group;
+        int count = Math.min(group, frames - f0);
+        double[] groupKs = new double[count];
+        System.arraycopy(ks, f0, groupKs, 0, count);
+        //(This group's buffers were last written two groups ago, and that's been waited for below.)
+        int[][] out = samples[g % 2];
+        long t = System.nanoTime();
+        engine.forEachRow(ImageXDim, ImageYDim, (j, i0, i1, argb) -> sampler.sampleRowSweep(j, i0, i1, groupKs, out));
+        System.out.println("Frames " + f0 + " to " + (f0 + count - 1) + " (k = " + groupKs[0] + " to "
+                             + groupKs[count - 1] + ") solved in " + (System.nanoTime() - t) / 1000000 + " ms.");
+
+        //Wait for the last group to be written, then write this one while the next is solved.
+        if(pending != null) {
+          pending.get();
+        }
+        pending = writer.submit(() -> {
+          BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+          for(int m = 0; m < count; m++) {
+            palette.paint(out[m], img);
+            ImageIO.write(img, "PNG", new File(outDir, String.format("k_%05d.png", f0 + m)));
+          }
+          return null;
+        });
+      }
+      if(pending != null) {
+        pending.get();
+      }
+    } catch(Exception x) {
+      System.out.println(x);
+    } finally {
+      writer.shutdown();
+    }
+    System.out.println(frames + " frames output to " + outDir + " in " + (System.nanoTime() - start) / 1000000
+                         + " ms.");
+  }
+}
@@ -0,0 +1,81 @@
+import java.awt.image.BufferedImage;
+
+/* Turns samples from a BasinSampler into colors: each basin gets a color from col[], and the alpha is
+ * set by how many iterations it took to converge, times alphaFactor (up to 255, fully opaque).
+ * */
+
+public class Palette {
+  
+  private final int[] col;
+  private final int alphaFactor;
+  
+  //col needs a color for every basin, including the "extra" one.
+  public Palette(int[] col, int alphaFactor) {
+    this.col = col.clone();
+    this.alphaFactor = alphaFactor;
+  }
+  
+  //Number of basins this palette has colors for.
+  public int getColorCount() {
+    return col.length;
+  }
+  
+  //ARGB color of a sample.
+  public int color(int sample) {
+    int iterations = BasinSampler.iterations(sample);
+    int alpha;
+    if(iterations * alphaFactor <= 255) {
+      alpha = iterations * alphaFactor;
+    } else {
+      //Just in case the alphaFactor is set badly and gives a number over 255.
+      alpha = 255;
+    }
+    //Add alpha value to the color by bit-shifting it and combining the binary numbers
+    //with a bitwise OR operation.
+    return (alpha << 24) | col[BasinSampler.basin(sample)];
+  }
+  
+  //A shader that samples a row with sampler and colors it with this palette.
+  public RenderEngine.RowShader shader(RenderEngine.Sampler sampler) {
+    return (j, i0, i1, argb) -> {
+      sampler.sampleRow(j, i0, i1, argb);
+      for(int n = 0; n < i1 - i0; n++) {
+        argb[n] = color(argb[n]);
+      }
+    };
+  }
+  
+  //Color a whole image of samples (row by row, width img.getWidth()) into img.
+  public void paint(int[] samples, BufferedImage img) {
+    int width = img.getWidth();
+    int[] pixels = RenderEngine.pixels(img);
+    if(pixels != null) {
+      for(int n = 0; n < width * img.getHeight(); n++) {
+        pixels[n] = color(samples[n]);
+      }
+      return;
+    }
+    int[] row = new int[width];
+    for(int j = 0; j < img.getHeight(); j++) {
+      for(int i = 0; i < width; i++) {
+        row[i] = color(samples[j * width + i]);
+      }
+      img.setRGB(0, j, width, 1, row, 0, width);
+    }
+  }
+  
+  //A smaller image from the pixels (i, j) of samples with i and j multiples of step, e.g. after a pass of
+  //RenderEngine.sampleProgressive(). width and height are the size of the full image.
+  public BufferedImage preview(int[] samples, int width, int height, int step) {
+    int w = (width + step - 1) / step;
+    int h = (height + step - 1) / step;
+    BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = RenderEngine.pixels(img);
+    for(int j = 0; j < h; j++) {
+      for(int i = 0; i < w; i++) {
+        pixels[j * w + i] = color(samples[j * step * width + i * step]);
+      }
+    }
+    return img;
+  }
+}
@@ -0,0 +1,120 @@
+import java.util.List;
+
+/* A polynomial with complex coefficients, stored as an array of coefficients (lowest power first).
+ * f, f' and f'' are all computed in one pass of Horner's rule, which takes O(n) time for degree n and
+ * doesn't create any objects, so it can be used directly as the ComplexEvaluator of a ComplexFunction.
+ * */
+
+public class Polynomial implements ComplexEvaluator {
+
+  //Coefficient of z^i is re[i] + im[i]*i.
+  private final double[] re;
+  private final double[] im;
+
+  //Polynomial with complex coefficients, lowest power first.
+  public Polynomial(double[] re, double[] im) {
+    if(re.length != im.length || re.length == 0) {
+      throw new IllegalArgumentException("Need the same number (at least one) of real and imaginary parts");
+    }
+    this.re = re.clone();
+    this.im = im.clone();
+  }
+
+  //Polynomial with real coefficients, lowest power first. new Polynomial(0, -1, 0, 1) is z^3 - z.
+  public Polynomial(double... coefficients) {
+    this(coefficients, new double[coefficients.length]);
+  }
+
+  //Multiply out (z - a)(z - b)...(z - n) for the roots a, b ... n. This is done once, so after this
+  //each iteration only costs one Horner pass. Only good for a few roots: with more than
+  //Expression.MAX_MULTIPLIED_DEGREE, close or repeated ones lose too much precision (see RootProduct).
+  public static Polynomial fromRoots(List<Complex> roots) {
+    int n = roots.size();
+    double[] cr = new double[n + 1];
+    double[] ci = new double[n + 1];
+    cr[0] = 1;
+    //After multiplying in m roots, cr/ci hold the coefficients of a degree m polynomial.
+    for(int m = 0; m < n; m++) {
+      double ra = roots.get(m).getA();
+      double rb = roots.get(m).getB();
+      //(c_0 + ... + c_m z^m)(z - r): shift everything up a power, then subtract r times the old coefficients.
+      for(int p = m + 1; p > 0; p--) {
+        double t = cr[p - 1] - ((ra * cr[p]) - (rb * ci[p]));
+        ci[p] = ci[p - 1] - ((rb * cr[p]) + (ra * ci[p]));
+        cr[p] = t;
+      }
+      double t = -((ra * cr[0]) - (rb * ci[0]));
+      ci[0] = -((rb * cr[0]) + (ra * ci[0]));
+      cr[0] = t;
+    }
+    return new Polynomial(cr, ci);
+  }
+
+  public int degree() {
+    return re.length - 1;
+  }
+
+  //Coefficient of z^p
+  public Complex coefficient(int p) {
+    return new Complex(re[p], im[p]);
+  }
+
+  //Horner's rule for f, carrying f' and f''/2 along with it.
+  public void evaluate(double x, double y, int order, double[] out) {
+    int n = re.length - 1;
+    double pa = re[n], pb = im[n];
+    double da = 0, db = 0;
+    double sa = 0, sb = 0;
+    for(int p = n - 1; p >= 0; p--) {
+      double t;
+      if(order == 2) {
+        //s = s*z + d
+        t = (sa * x) - (sb * y) + da;
+        sb = (sb * x) + (sa * y) + db;
+        sa = t;
+      }
+      //d = d*z + p
+      t = (da * x) - (db * y) + pa;
+      db = (db * x) + (da * y) + pb;
+      da = t;
+      //p = p*z + c
+      t = (pa * x) - (pb * y) + re[p];
+      pb = (pb * x) + (pa * y) + im[p];
+      pa = t;
+    }
+    out[0] = pa;
+    out[1] = pb;
+    out[2] = da;
+    out[3] = db;
+    if(order == 2) {
+      out[4] = 2 * sa;
+      out[5] = 2 * sb;
+    }
+  }
+
+  //This polynomial as a ComplexFunction, with f, f' and f'' all coming from evaluate().
+  public ComplexFunction toFunction(double k) {
+    return new ComplexFunction(z -> part(z, 0), z -> part(z, 2), z -> part(z, 4), this, k);
+  }
+
+  //One of f, f' or f'' (starting at index i of the evaluate() output) as a Complex.
+  private Complex part(Complex z, int i) {
+    double[] out = new double[6];
+    evaluate(z.getA(), z.getB(), 2, out);
+    return new Complex(out[i], out[i + 1]);
+  }
+
+  //Print the polynomial as "(a + bi)z^n + ... + (c + di)"
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for(int p = re.length - 1; p >= 0; p--) {
+      s.append("(").append(coefficient(p)).append(")");
+      if(p > 1) {
+        s.append("z^").append(p).append(" + ");
+      } else if(p == 1) {
+        s.append("z + ");
+      }
+    }
+    return s.toString();
+  }
+}
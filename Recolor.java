@@ -0,0 +1,82 @@
+/* Outputs a .png image to the working directory by coloring a saved render (a .basins file, see
+ * BasinBuffer) again, without solving anything. Since the render is only read, this takes about as long
+ * as writing the PNG, even for huge images.
+ * */
+
+import java.io.File;
+import java.lang.Math;
+
+/*Instructions for Use
+ * 
+ * Run with the name of a .basins file written by CIMFromRoots (or a .tiles file left by a tiled render of
+ * ComplexImageMaker), and optionally an alphaFactor:
+ * 
+ *    java Recolor img0.basins 10
+ * 
+ * Change the colors in col[] below to recolor with different colors. The image is output into the working
+ * directory as r_img.png.
+ */
+
+public class Recolor {
+  
+  public static void main(String[] args) {
+    if(args.length < 1) {
+      System.out.println("Usage: java Recolor <file.basins> [alphaFactor]");
+      return;
+    }
+    
+    //Set alphaFactor so that the maximum iterations times the alphaFactor is approximately 255 (the
+    //maximum opaqueness), or adjust to suit.
+    int alphaFactor = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    
+    try {
+      //Map the render into memory. Nothing is read until it is colored. (Tile stores left by tiled renders
+      //work too.)
+      BasinBuffer basins = null;
+      TileStore tiles = null;
+      if(args[0].endsWith(".tiles")) {
+        tiles = TileStore.open(new File(args[0]));
+      } else {
+        basins = BasinBuffer.open(new File(args[0]), false);
+      }
+      
+      //Define some color integers, one for each basin there could be (BasinBuffer has room for 254).
+      //The first 6 are an approximate rainbow and the rest are random.
+      int[] col = new int[BasinBuffer.MAX_BASIN + 1];
+      col[0] = (255 << 16) | (0 << 8) | 0;
+      col[1] = (255 << 16) | (127 << 8) | 0;
+      col[2] = (255 << 16) | (255 << 8) | 0;
+      col[3] = (0 << 16) | (255 << 8) | 0;
+      col[4] = (0 << 16) | (0 << 8) | 255;
+      col[5] = (143 << 16) | (0 << 8) | 255;
+      for(int i = 6; i < col.length; i++) {
+        int r = (int) (Math.random()*255);
+        int g = (int) (Math.random()*255);
+        int b = (int) (Math.random()*255);
+        col[i] = (r << 16) | (g << 8) | b;
+      }
+      Colorizer colorizer = new Colorizer(new Palette(col, alphaFactor));
+      
+      //Find an unused file name, then color the render into it.
+      int k = 0;
+      File output = new File("r_img" + k + ".png");
+      while(output.exists()) {
+        k++;
+        output = new File("r_img" + k + ".png");
+      }
+      long start = System.nanoTime();
+      if(tiles != null) {
+        colorizer.writePng(tiles, output);
+      } else {
+        colorizer.writePng(basins, output);
+      }
+      int width = tiles != null ? tiles.getWidth() : basins.getWidth();
+      int height = tiles != null ? tiles.getHeight() : basins.getHeight();
+      System.out.println(width + " x " + height + " image recolored in "
+                           + (System.nanoTime() - start) / 1000000 + " ms.");
+      System.out.println("Image saved as r_img" + k + ".png.");
+    } catch(Exception x) {
+      System.out.println(x);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* A cache on disk of the samples (basin and iteration count of every pixel, see BasinSampler) of finished
+ * renders, so rendering the same function, window and k again - to recolor it, say - doesn't solve anything.
+ * Each render is one compressed file in the cache directory, named by a hash of everything the samples depend
+ * on (see key()). When the files add up to more than maxBytes, the least recently used ones are deleted.
+ * */
+
+public class RenderCache {
+
+  private static final int MAGIC = 0x4E465043;   //"NFPC"
+  private static final String SUFFIX = ".samples.gz";
+
+  private final File dir;
+  private final long maxBytes;
+
+  public RenderCache(File dir, long maxBytes) throws IOException {
+    if(!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Can't make cache directory " + dir);
+    }
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+  }
+
+  //A SHA-256 hash (in hex) of everything the samples depend on: the solver and its TOL and maximum
+  //iterations, the function's coefficients (or its source, for a typed-in Expression) and k, the roots the end points are compared to, and the window
+  //and image size. adaptiveTolerance is the tolerance of an adaptive render, or -1 if every pixel was solved,
+  //and earlyExit is whether it stopped in ConvergenceDisks (see BasinSampler). Cycle detection is part of the
+  //solver.
+  //Returns null if the function can't be hashed (it has to be a Polynomial or have a source, since lambdas
+  //can't be compared).
+  public static String key(IterativeMethod solver, List<Complex> roots, Window window, int adaptiveTolerance,
+                           boolean earlyExit) {
+    return key(solver, roots, window, adaptiveTolerance, earlyExit, false);
+  }
+
+  //Same, for a render that might have stopped on pixels already solved (see SolvedPixels).
+  public static String key(IterativeMethod solver, List<Complex> roots, Window window, int adaptiveTolerance,
+                           boolean earlyExit, boolean landOnSolved) {
+    ComplexFunction fn = solver.getFunction();
+    boolean polynomial = fn.getEvaluator() instanceof Polynomial;
+    if(!polynomial && fn.getSource() == null) {
+      return null;
+    }
+    //Doubles are written with Double.toString(), which always gives back exactly the same double.
+    StringBuilder s = new StringBuilder();
+    s.append("solver=").append(solver.getClass().getName()).append('\n');
+    s.append("tol=").append(solver.getTolerance()).append('\n');
+    s.append("n=").append(solver.getMaxIterations()).append('\n');
+    s.append("k=").append(fn.getK()).append('\n');
+    if(polynomial) {
+      Polynomial poly = (Polynomial) fn.getEvaluator();
+      s.append("coefficients=");
+      for(int p = 0; p <= poly.degree(); p++) {
+        Complex c = poly.coefficient(p);
+        s.append(c.getA()).append(',').append(c.getB()).append(';');
+      }
+    } else {
+      s.append("function=").append(fn.getSource());
+    }
+    s.append('\n');
+    s.append("roots=");
+    for(Complex r : roots) {
+      s.append(r.getA()).append(',').append(r.getB()).append(';');
+    }
+    s.append('\n');
+    s.append("window=").append(window.getXLow()).append(',').append(window.getXHigh()).append(',')
+      .append(window.getYLow()).append(',').append(window.getYHigh()).append('\n');
+    s.append("size=").append(window.getWidth()).append('x').append(window.getHeight()).append('\n');
+    s.append("adaptive=").append(adaptiveTolerance).append('\n');
+    if(earlyExit) {
+      //(Only added when it's on, so the keys of everything cached before it existed stay the same.)
+      s.append("early=true\n");
+    }
+    if(solver.detectsCycles()) {
+      s.append("cycles=true\n");
+    }
+    if(landOnSolved) {
+      s.append("landed=true\n");
+    }
+    return hash(s.toString());
+  }
+
+  //SHA-256 hash of s, in hex.
+  public static String hash(String s) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for(byte b : hash) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch(NoSuchAlgorithmException x) {
+      //Every JVM has SHA-256.
+      throw new IllegalStateException(x);
+    }
+  }
+
+  //The samples stored under key, or null if there aren't any. A file that can't be read (cut short,
+  //corrupted, or for a different size of image) is deleted, once it's closed, and counts as not being there,
+  //so it doesn't get in the way of every later render with the same settings.
+  public synchronized int[] get(String key, int width, int height) throws IOException {
+    File f = file(key);
+    if(!f.isFile()) {
+      return null;
+    }
+    int[] samples;
+    try(DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(
+                                                                         new FileInputStream(f))))) {
+      if(in.readInt() != MAGIC || in.readInt() != width || in.readInt() != height) {
+        //(The key covers the size, so this is a damaged file too.)
+        throw new IOException("not samples of a " + width + "x" + height + " render");
+      }
+      byte[] bytes = new byte[4 * width * height];
+      in.readFully(bytes);
+      samples = new int[width * height];
+      ByteBuffer.wrap(bytes).asIntBuffer().get(samples);
+    } catch(IOException x) {
+      System.out.println("Deleting unreadable cache file " + f + ": " + x);
+      f.delete();
+      return null;
+    }
+    //Mark it as just used.
+    f.setLastModified(System.currentTimeMillis());
+    return samples;
+  }
+
+  //Store samples under key, then delete the least recently used renders until the cache fits in maxBytes
+  //again (keeping this one).
+  public synchronized void put(String key, int width, int height, int[] samples) throws IOException {
+    //Written to a temporary file first, so a half written file never has a real name.
+    File tmp = new File(dir, key + ".tmp");
+    try(DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+                                                                             new FileOutputStream(tmp))))) {
+      out.writeInt(MAGIC);
+      out.writeInt(width);
+      out.writeInt(height);
+      byte[] bytes = new byte[4 * width * height];
+      ByteBuffer.wrap(bytes).asIntBuffer().put(samples, 0, width * height);
+      out.write(bytes);
+    }
+    File f = file(key);
+    if(f.exists() && !f.delete() || !tmp.renameTo(f)) {
+      tmp.delete();
+      throw new IOException("Can't write " + f);
+    }
+    evict(f);
+  }
+
+  private void evict(File keep) {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+    if(files == null) {
+      return;
+    }
+    long total = 0;
+    for(File f : files) {
+      total += f.length();
+    }
+    //Oldest first.
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for(File f : files) {
+      if(total <= maxBytes) {
+        break;
+      }
+      if(!f.equals(keep)) {
+        long length = f.length();
+        if(f.delete()) {
+          total -= length;
+        }
+      }
+    }
+  }
+
+  private File file(String key) {
+    return new File(dir, key + SUFFIX);
+  }
+}
@@ -0,0 +1,612 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Shared multi-core render engine used by the application classes. The image is split into tiles
+ * which are rendered on a ForkJoinPool. Tiles are split recursively, so idle threads can steal
+ * the expensive ones (the fractal edges take many more iterations than the smooth basin interiors).
+ * */
+
+public class RenderEngine {
+
+  //Computes the ARGB color of pixel (i, j). Must be safe to call from several threads at once.
+  //scratch belongs to the calling thread and can be passed to IterativeMethod.solve() to avoid
+  //creating objects for each pixel.
+  public interface PixelShader {
+    int shade(int i, int j, SolveResult scratch);
+  }
+
+  //Computes the ARGB colors of pixels i0 <= i < i1 of row j at once, into argb[0] to argb[i1 - i0 - 1].
+  //For shaders that solve several pixels together (see BatchNewton). Must be safe to call from several
+  //threads at once.
+  public interface RowShader {
+    void shadeRow(int j, int i0, int i1, int[] argb);
+  }
+
+  //Computes a sample (a basin number and iteration count packed into an int, see BasinSampler) for
+  //pixel (i, j), for pixels i0 <= i < i1 of row j at once into out[0] to out[i1 - i0 - 1], or for any
+  //count pixels (is[n], js[n]) at once into out[0] to out[count - 1]. Must be safe to call from several
+  //threads at once.
+  public interface Sampler {
+    int sample(int i, int j, SolveResult scratch);
+    void sampleRow(int j, int i0, int i1, int[] out);
+    void samplePoints(int[] is, int[] js, int count, int[] out);
+  }
+
+  //Called after each pass of a progressive render (see sampleProgressive()) with the pass's step. Return
+  //false to stop there without refining any further.
+  public interface PassListener {
+    boolean passDone(int step, int[] samples);
+  }
+
+  //Marks pixels that haven't been sampled yet in adaptive renders. (Real samples are never negative.)
+  public static final int UNSOLVED = -1;
+
+  //Steps of the passes of a progressive render: 1/16, 1/4, 1/2 and then full resolution.
+  public static final int[] PASS_STEPS = {16, 4, 2, 1};
+
+  //Tiles with fewer pixels than this are rendered directly instead of being split further.
+  //64x64 is small enough that there are plenty of tiles to steal and big enough that the
+  //fork/join overhead doesn't matter.
+  public static final int TILE_PIXELS = 64 * 64;
+
+  private final ForkJoinPool pool;
+
+  //Use every core on the machine.
+  public RenderEngine() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  //Or render on a pool set by the application.
+  public RenderEngine(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  //Shade every pixel of img. Gives the same image as shading the pixels one by one in a loop,
+  //since each pixel only depends on its own coordinates.
+  public void render(BufferedImage img, PixelShader shader) {
+    render(img, shader, null);
+  }
+
+  //Same, shading a row of each tile at a time.
+  public void render(BufferedImage img, RowShader shader) {
+    render(img, null, shader);
+  }
+
+  private void render(BufferedImage img, PixelShader shader, RowShader rowShader) {
+    int[] pixels = pixels(img);
+    if(pixels != null) {
+      //Write straight into the image's pixels, the same as a band.
+      pool.invoke(new TileTask(null, pixels, 0, img.getWidth(), shader, rowShader, 0, 0, img.getWidth(),
+                               img.getHeight()));
+    } else {
+      pool.invoke(new TileTask(img, null, 0, 0, shader, rowShader, 0, 0, img.getWidth(), img.getHeight()));
+    }
+  }
+
+  //The array holding img's pixels, row by row, if it's a plain TYPE_INT_ARGB image (which all the images
+  //made here are), or null otherwise. Writing colors straight into it gives exactly the same image as
+  //setRGB(), without going through the ColorModel for every pixel.
+  public static int[] pixels(BufferedImage img) {
+    if(img.getType() != BufferedImage.TYPE_INT_ARGB) {
+      return null;
+    }
+    WritableRaster raster = img.getRaster();
+    if(raster.getParent() != null || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+       || ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() != img.getWidth()) {
+      //(Part of a bigger image)
+      return null;
+    }
+    DataBufferInt data = (DataBufferInt) raster.getDataBuffer();
+    return data.getNumBanks() == 1 && data.getOffset() == 0 ? data.getData() : null;
+  }
+
+  //Render a width x height image straight into a PNG file, bandHeight rows at a time, without ever
+  //having the whole image in memory. Only two bands are held at once: while one is being compressed
+  //and written on another thread, the next one is rendered. Good for images too big for a BufferedImage.
+  //If anything goes wrong, output is deleted rather than left half written.
+  public void renderPng(int width, int height, PixelShader shader, File output, int bandHeight) throws IOException {
+    renderPng(width, height, shader, null, output, bandHeight);
+  }
+
+  //Same, shading a row of each tile at a time.
+  public void renderPng(int width, int height, RowShader shader, File output, int bandHeight) throws IOException {
+    renderPng(width, height, null, shader, output, bandHeight);
+  }
+
+  private void renderPng(int width, int height, PixelShader shader, RowShader rowShader, File output,
+                         int bandHeight) throws IOException {
+    ExecutorService encoder = Executors.newSingleThreadExecutor();
+    boolean written = false;
+    try {
+      try(StreamingPngWriter png = new StreamingPngWriter(new BufferedOutputStream(new FileOutputStream(output)),
+                                                          width, height)) {
+        int[][] bands = {new int[width * bandHeight], new int[width * bandHeight]};
+        Future<?> writing = null;
+        try {
+          for(int y0 = 0, b = 0; y0 < height; y0 += bandHeight, b ^= 1) {
+            int[] band = bands[b];
+            int rows = Math.min(bandHeight, height - y0);
+            pool.invoke(new TileTask(null, band, y0, width, shader, rowShader, 0, y0, width, y0 + rows));
+            //The other band has to be written before this one can go.
+            finish(writing);
+            writing = encoder.submit(() -> {
+              png.writeRows(band, 0, rows);
+              return null;
+            });
+          }
+          finish(writing);
+        } finally {
+          //(If solving a band failed, the one before it may still be being written - png can't be closed
+          //under it.)
+          waitFor(writing);
+        }
+      }
+      written = true;
+    } finally {
+      encoder.shutdown();
+      //Don't leave half an image behind.
+      if(!written) {
+        output.delete();
+      }
+    }
+  }
+
+  //Wait for a band to be written, however that ends (finish() is the one that passes on what went wrong).
+  private static void waitFor(Future<?> writing) {
+    if(writing == null) {
+      return;
+    }
+    boolean interrupted = false;
+    while(true) {
+      try {
+        writing.get();
+        break;
+      } catch(InterruptedException x) {
+        interrupted = true;
+      } catch(ExecutionException | CancellationException x) {
+        break;
+      }
+    }
+    if(interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  //Wait for a band to be written, passing on anything that went wrong.
+  private static void finish(Future<?> writing) throws IOException {
+    if(writing == null) {
+      return;
+    }
+    try {
+      writing.get();
+    } catch(InterruptedException x) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing PNG", x);
+    } catch(ExecutionException x) {
+      if(x.getCause() instanceof IOException) {
+        throw (IOException) x.getCause();
+      }
+      throw new IOException(x.getCause());
+    }
+  }
+
+  //Sample every pixel of a width x height image into samples, row by row.
+  public void sample(int width, int height, Sampler sampler, int[] samples) {
+    pool.invoke(new TileTask(null, samples, 0, width, null, sampler::sampleRow, 0, 0, width, height));
+  }
+
+  //Sample a width x height image into samples, skipping the insides of areas that are all the same
+  //(Mariani-Silver subdivision). Each tile is checked by sampling just the pixels around its edge. If they
+  //are all in the same basin, with iteration counts no more than tolerance apart, the inside is filled in
+  //without solving. Otherwise the tile is cut into quarters and each of those is checked the same way.
+  //With tolerance 0 the filled pixels get exactly the edge's sample; otherwise they get the middle of
+  //its iteration range. Returns the number of pixels that were filled in instead of solved.
+  //
+  //(This assumes that nothing is hiding inside an area with a uniform edge, which holds for basins - an
+  //island of another basin would have its own edge - unless it is smaller than the tile.)
+  public long sampleAdaptive(int width, int height, Sampler sampler, int tolerance, int[] samples) {
+    Arrays.fill(samples, 0, width * height, UNSOLVED);
+    LongAdder skipped = new LongAdder();
+    pool.invoke(new AdaptiveTask(sampler, samples, width, tolerance, skipped, 0, 0, width, height));
+    return skipped.sum();
+  }
+
+  //Sample a width x height image into samples in passes of increasing resolution, so there is something
+  //to look at long before the whole image is done. The pass with step s solves every pixel (i, j) with i
+  //and j multiples of s, skipping the ones solved by earlier passes, so the last pass (step 1) finishes the
+  //image and nothing is solved twice. listener is called after each pass, when it can make a preview from
+  //those pixels (see Palette.preview()). Returns false if the listener stopped the render early.
+  public boolean sampleProgressive(int width, int height, Sampler sampler, int[] samples, PassListener listener) {
+    Arrays.fill(samples, 0, width * height, UNSOLVED);
+    for(int step : PASS_STEPS) {
+      int rows = (height + step - 1) / step;
+      pool.invoke(new PassTask(sampler, samples, width, step, 0, rows));
+      if(!listener.passDone(step, samples)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //Call rows for every row of every tile of a width x height image, spread over the pool the same way as
+  //render(), for shaders that keep their results themselves (like the samples of a k sweep, see
+  //BasinSampler.sampleRowSweep()). The argb array they're given is just scratch space.
+  public void forEachRow(int width, int height, RowShader rows) {
+    pool.invoke(new TileTask(null, null, 0, width, null, rows, 0, 0, width, height));
+  }
+
+  //Sample only the pixels of a width x height image that are UNSOLVED in samples, leaving the rest as they
+  //are - for when some of them are already known, like the parts of a zoom animation's frame that were
+  //solved for the frame before (see ZoomAnimator). Returns the number of pixels solved.
+  public long sampleMissing(int width, int height, Sampler sampler, int[] samples) {
+    long missing = 0;
+    for(int n = 0; n < width * height; n++) {
+      if(samples[n] == UNSOLVED) {
+        missing++;
+      }
+    }
+    pool.invoke(new PassTask(sampler, samples, width, 1, 0, height));
+    return missing;
+  }
+
+  //Render every tile of store that isn't done yet, writing each straight into the store as it finishes.
+  //Returns the number of tiles rendered (the rest were done by an earlier, interrupted render).
+  public int renderTiles(TileStore store, Sampler sampler) {
+    int before = store.countDone();
+    pool.invoke(new StoreTask(store, sampler, 0, store.getTilesX() * store.getTilesY()));
+    return store.countDone() - before;
+  }
+
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  //A rectangle of pixels, x0 <= i < x1 and y0 <= j < y1.
+  private static class TileTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    //Where the pixels go: either img, or band (whose first row is row bandY0 of the image, and whose
+    //rows are bandWidth pixels long), or nowhere if both are null.
+    private final BufferedImage img;
+    private final int[] band;
+    private final int bandY0;
+    private final int bandWidth;
+    //(Only one of these is set)
+    private final PixelShader shader;
+    private final RowShader rowShader;
+    private final int x0, y0, x1, y1;
+
+    TileTask(BufferedImage img, int[] band, int bandY0, int bandWidth, PixelShader shader, RowShader rowShader,
+             int x0, int y0, int x1, int y1) {
+      this.img = img;
+      this.band = band;
+      this.bandY0 = bandY0;
+      this.bandWidth = bandWidth;
+      this.shader = shader;
+      this.rowShader = rowShader;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+    }
+
+    @Override
+    protected void compute() {
+      int w = x1 - x0;
+      int h = y1 - y0;
+      if(w * h <= TILE_PIXELS) {
+        //Small enough, so render it. Rows on the outside to walk the raster in order.
+        if(rowShader != null) {
+          int[] argb = new int[w];
+          for(int j = y0; j < y1; j++) {
+            rowShader.shadeRow(j, x0, x1, argb);
+            if(img != null) {
+              img.setRGB(x0, j, w, 1, argb, 0, w);
+            } else if(band != null) {
+              System.arraycopy(argb, 0, band, (j - bandY0) * bandWidth + x0, w);
+            }
+          }
+          return;
+        }
+        SolveResult scratch = new SolveResult();
+        for(int j = y0; j < y1; j++) {
+          for(int i = x0; i < x1; i++) {
+            int c = shader.shade(i, j, scratch);
+            if(img != null) {
+              img.setRGB(i, j, c);
+            } else {
+              band[(j - bandY0) * bandWidth + i] = c;
+            }
+          }
+        }
+        return;
+      }
+      //Otherwise cut the longer side in half and render both halves.
+      if(w >= h) {
+        int mid = x0 + w / 2;
+        invokeAll(new TileTask(img, band, bandY0, bandWidth, shader, rowShader, x0, y0, mid, y1),
+                  new TileTask(img, band, bandY0, bandWidth, shader, rowShader, mid, y0, x1, y1));
+      } else {
+        int mid = y0 + h / 2;
+        invokeAll(new TileTask(img, band, bandY0, bandWidth, shader, rowShader, x0, y0, x1, mid),
+                  new TileTask(img, band, bandY0, bandWidth, shader, rowShader, x0, mid, x1, y1));
+      }
+    }
+  }
+
+  //A rectangle of pixels, x0 <= i < x1 and y0 <= j < y1, to be sampled with Mariani-Silver subdivision.
+  private static class AdaptiveTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    //Rectangles smaller than this on a side are just solved completely.
+    private static final int MIN_SIDE = 8;
+
+    private final Sampler sampler;
+    private final int[] samples;
+    private final int width;
+    private final int tolerance;
+    private final LongAdder skipped;
+    private final int x0, y0, x1, y1;
+    private SolveResult scratch;
+    //Pixels to solve (like the ones around the edge of a rectangle), and their samples.
+    private int[] is, js, edge;
+
+    AdaptiveTask(Sampler sampler, int[] samples, int width, int tolerance, LongAdder skipped,
+                 int x0, int y0, int x1, int y1) {
+      this.sampler = sampler;
+      this.samples = samples;
+      this.width = width;
+      this.tolerance = tolerance;
+      this.skipped = skipped;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+    }
+
+    @Override
+    protected void compute() {
+      int w = x1 - x0;
+      int h = y1 - y0;
+      //Big areas are split into tiles the same way as TileTask, so there are plenty to steal.
+      if(w * h > TILE_PIXELS) {
+        if(w >= h) {
+          int mid = x0 + w / 2;
+          invokeAll(new AdaptiveTask(sampler, samples, width, tolerance, skipped, x0, y0, mid, y1),
+                    new AdaptiveTask(sampler, samples, width, tolerance, skipped, mid, y0, x1, y1));
+        } else {
+          int mid = y0 + h / 2;
+          invokeAll(new AdaptiveTask(sampler, samples, width, tolerance, skipped, x0, y0, x1, mid),
+                    new AdaptiveTask(sampler, samples, width, tolerance, skipped, x0, mid, x1, y1));
+        }
+        return;
+      }
+      scratch = new SolveResult();
+      is = new int[2 * (w + h)];
+      js = new int[2 * (w + h)];
+      edge = new int[2 * (w + h)];
+      subdivide(x0, y0, x1, y1);
+    }
+
+    private void subdivide(int ax, int ay, int bx, int by) {
+      int w = bx - ax;
+      int h = by - ay;
+      if(w < MIN_SIDE || h < MIN_SIDE) {
+        int count = 0;
+        for(int j = ay; j < by; j++) {
+          for(int i = ax; i < bx; i++) {
+            count = unsolved(i, j, count);
+            if(count == is.length) {
+              solvePoints(count);
+              count = 0;
+            }
+          }
+        }
+        solvePoints(count);
+        return;
+      }
+      //Sample the edge, and see if it is all the same. (The edge pixels that haven't been solved yet are
+      //all solved together first, which is much quicker than one at a time with BatchNewton.)
+      solveEdge(ax, ay, bx, by);
+      int first = solve(ax, ay);
+      int basin = BasinSampler.basin(first);
+      int lo = BasinSampler.iterations(first);
+      int hi = lo;
+      boolean uniform = true;
+      for(int n = 0; n < 2 * (w + h) - 4; n++) {
+        int s;
+        if(n < w) {
+          s = solve(ax + n, ay);
+        } else if(n < 2 * w) {
+          s = solve(ax + n - w, by - 1);
+        } else if(n < 2 * w + h - 2) {
+          s = solve(ax, ay + 1 + n - 2 * w);
+        } else {
+          s = solve(bx - 1, ay + 1 + n - (2 * w + h - 2));
+        }
+        int it = BasinSampler.iterations(s);
+        lo = Math.min(lo, it);
+        hi = Math.max(hi, it);
+        if(BasinSampler.basin(s) != basin || hi - lo > tolerance) {
+          uniform = false;
+          break;
+        }
+      }
+      if(uniform) {
+        int fill = tolerance == 0 ? first : BasinSampler.pack(basin, (lo + hi) / 2);
+        for(int j = ay + 1; j < by - 1; j++) {
+          Arrays.fill(samples, j * width + ax + 1, j * width + bx - 1, fill);
+        }
+        skipped.add((long)(w - 2) * (h - 2));
+        return;
+      }
+      //Otherwise check each quarter.
+      int mx = ax + w / 2;
+      int my = ay + h / 2;
+      subdivide(ax, ay, mx, my);
+      subdivide(mx, ay, bx, my);
+      subdivide(ax, my, mx, by);
+      subdivide(mx, my, bx, by);
+    }
+
+    //Solve the pixels around the edge of ax <= i < bx, ay <= j < by that haven't been yet.
+    private void solveEdge(int ax, int ay, int bx, int by) {
+      int count = 0;
+      for(int i = ax; i < bx; i++) {
+        count = unsolved(i, ay, count);
+        count = unsolved(i, by - 1, count);
+      }
+      for(int j = ay + 1; j < by - 1; j++) {
+        count = unsolved(ax, j, count);
+        count = unsolved(bx - 1, j, count);
+      }
+      solvePoints(count);
+    }
+
+    //Solve the first count pixels of the list.
+    private void solvePoints(int count) {
+      if(count > 0) {
+        sampler.samplePoints(is, js, count, edge);
+        for(int n = 0; n < count; n++) {
+          samples[js[n] * width + is[n]] = edge[n];
+        }
+      }
+    }
+
+    //Add (i, j) to the list of pixels to solve if it hasn't been solved yet.
+    private int unsolved(int i, int j, int count) {
+      if(samples[j * width + i] == UNSOLVED) {
+        is[count] = i;
+        js[count] = j;
+        count++;
+      }
+      return count;
+    }
+
+    //Sample of pixel (i, j), solving it first if it hasn't been yet.
+    private int solve(int i, int j) {
+      int s = samples[j * width + i];
+      if(s == UNSOLVED) {
+        s = sampler.sample(i, j, scratch);
+        samples[j * width + i] = s;
+      }
+      return s;
+    }
+  }
+
+  //Rows r0 <= r < r1 of one pass of a progressive render, i.e. image rows r*step, sampling every step'th
+  //pixel of each that hasn't been sampled yet.
+  private static class PassTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Sampler sampler;
+    private final int[] samples;
+    private final int width;
+    private final int step;
+    private final int r0, r1;
+
+    PassTask(Sampler sampler, int[] samples, int width, int step, int r0, int r1) {
+      this.sampler = sampler;
+      this.samples = samples;
+      this.width = width;
+      this.step = step;
+      this.r0 = r0;
+      this.r1 = r1;
+    }
+
+    @Override
+    protected void compute() {
+      int columns = (width + step - 1) / step;
+      //Split into about the same size tiles as TileTask.
+      if(r1 - r0 > 1 && (r1 - r0) * columns > TILE_PIXELS) {
+        int mid = r0 + (r1 - r0) / 2;
+        invokeAll(new PassTask(sampler, samples, width, step, r0, mid),
+                  new PassTask(sampler, samples, width, step, mid, r1));
+        return;
+      }
+      int[] is = new int[columns];
+      int[] js = new int[columns];
+      int[] out = new int[columns];
+      for(int r = r0; r < r1; r++) {
+        int j = r * step;
+        int count = 0;
+        for(int i = 0; i < width; i += step) {
+          if(samples[j * width + i] == UNSOLVED) {
+            is[count] = i;
+            js[count] = j;
+            count++;
+          }
+        }
+        if(count > 0) {
+          sampler.samplePoints(is, js, count, out);
+          for(int n = 0; n < count; n++) {
+            samples[j * width + is[n]] = out[n];
+          }
+        }
+      }
+    }
+  }
+
+  //Tiles t0 <= t < t1 of a TileStore (numbered row by row).
+  private static class StoreTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TileStore store;
+    private final Sampler sampler;
+    private final int t0, t1;
+
+    StoreTask(TileStore store, Sampler sampler, int t0, int t1) {
+      this.store = store;
+      this.sampler = sampler;
+      this.t0 = t0;
+      this.t1 = t1;
+    }
+
+    @Override
+    protected void compute() {
+      if(t1 - t0 > 1) {
+        int mid = t0 + (t1 - t0) / 2;
+        invokeAll(new StoreTask(store, sampler, t0, mid), new StoreTask(store, sampler, mid, t1));
+        return;
+      }
+      int tx = t0 % store.getTilesX();
+      int ty = t0 / store.getTilesX();
+      if(store.isDone(tx, ty)) {
+        return;
+      }
+      int size = store.getTileSize();
+      int x0 = tx * size;
+      int y0 = ty * size;
+      int x1 = Math.min(x0 + size, store.getWidth());
+      int y1 = Math.min(y0 + size, store.getHeight());
+      //(The parts of edge tiles outside the image stay unsolved.)
+      int[] samples = new int[size * size];
+      Arrays.fill(samples, UNSOLVED);
+      int[] row = new int[size];
+      for(int j = y0; j < y1; j++) {
+        sampler.sampleRow(j, x0, x1, row);
+        System.arraycopy(row, 0, samples, (j - y0) * size, x1 - x0);
+      }
+      store.writeTile(tx, ty, samples);
+    }
+  }
+}
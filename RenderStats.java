@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Numbers about one render, to pick N and alphaFactor from and to spot renders getting slower: a histogram
+ * of iterations per pixel, how many pixels ran out of iterations, didn't end up at a root or were caught in a
+ * cycle, how long each stage took, and pixels per second.
+ *
+ * Samples can be counted all at once when the render has them in an array (count()), or as they're solved by
+ * wrapping the Sampler (counting()), for renders that never hold them all. Each thread counts into its own
+ * histogram, so counting doesn't slow the render down.
+ * */
+
+public class RenderStats {
+
+  private final int maxIterations;
+  private final int rootCount;
+  //One histogram per thread that has counted anything, indexed by iteration count (up to maxIterations + 1).
+  //The last three entries are the number of pixels in the extra basin, the number in the cycle basin, and then
+  //the number of pixels.
+  private final List<long[]> histograms = new ArrayList<long[]>();
+  private final ThreadLocal<long[]> histogram = ThreadLocal.withInitial(this::newHistogram);
+  //Time taken by each stage, in ns, in the order they were first recorded.
+  private final Map<String, Long> stages = new LinkedHashMap<String, Long>();
+
+  //For a render with solver's N whose samples have rootCount roots.
+  public RenderStats(IterativeMethod solver, int rootCount) {
+    this.maxIterations = solver.getMaxIterations();
+    this.rootCount = rootCount;
+  }
+
+  private synchronized long[] newHistogram() {
+    long[] h = new long[maxIterations + 5];
+    histograms.add(h);
+    return h;
+  }
+
+  //Count samples[offset] to samples[offset + count - 1]. Can be called from several threads at once.
+  public void count(int[] samples, int offset, int count) {
+    long[] h = histogram.get();
+    int last = maxIterations + 1;
+    for(int n = offset; n < offset + count; n++) {
+      int sample = samples[n];
+      if(sample == RenderEngine.UNSOLVED) {
+        continue;
+      }
+      h[Math.min(BasinSampler.iterations(sample), last)]++;
+      int basin = BasinSampler.basin(sample);
+      if(basin >= rootCount) {
+        h[last + 1]++;
+        if(basin == rootCount + 1) {
+          h[last + 2]++;
+        }
+      }
+      h[last + 3]++;
+    }
+  }
+
+  public void count(int[] samples) {
+    count(samples, 0, samples.length);
+  }
+
+  //sampler, counting every sample it makes. (Pixels that are solved twice, or filled in without solving -
+  //see RenderEngine.sampleAdaptive() - are counted as often as they're solved, so for those count the
+  //finished samples instead.)
+  public RenderEngine.Sampler counting(RenderEngine.Sampler sampler) {
+    return new RenderEngine.Sampler() {
+      public int sample(int i, int j, SolveResult scratch) {
+        int[] s = {sampler.sample(i, j, scratch)};
+        count(s, 0, 1);
+        return s[0];
+      }
+
+      public void sampleRow(int j, int i0, int i1, int[] out) {
+        sampler.sampleRow(j, i0, i1, out);
+        count(out, 0, i1 - i0);
+      }
+
+      public void samplePoints(int[] is, int[] js, int count, int[] out) {
+        sampler.samplePoints(is, js, count, out);
+        count(out, 0, count);
+      }
+    };
+  }
+
+  //Record that stage name started at start (from System.nanoTime()) and has just finished. Returns the time
+  //now, to start the next stage from. Stages with the same name add up.
+  public synchronized long stage(String name, long start) {
+    long now = System.nanoTime();
+    stages.merge(name, now - start, Long::sum);
+    return now;
+  }
+
+  //Number of pixels that took each number of iterations, from 0 up to N + 1 (= didn't converge).
+  public synchronized long[] getHistogram() {
+    long[] total = new long[maxIterations + 2];
+    for(long[] h : histograms) {
+      for(int n = 0; n < total.length; n++) {
+        total[n] += h[n];
+      }
+    }
+    return total;
+  }
+
+  public synchronized long getPixels() {
+    return sum(maxIterations + 4);
+  }
+
+  //Pixels that ran out of iterations.
+  public synchronized long getNonConverged() {
+    return sum(maxIterations + 1);
+  }
+
+  //Pixels that didn't end up at any of the roots (the extra basin), whether or not they converged. Includes
+  //the ones caught in cycles.
+  public synchronized long getExtraBasin() {
+    return sum(maxIterations + 2);
+  }
+  
+  //Pixels given up on for going round a cycle (the cycle basin - only if the solver detects cycles). These
+  //are counted as not converged too.
+  public synchronized long getCycles() {
+    return sum(maxIterations + 3);
+  }
+
+  private long sum(int index) {
+    long total = 0;
+    for(long[] h : histograms) {
+      total += h[index];
+    }
+    return total;
+  }
+
+  //Time of stage name in ns (0 if there wasn't one).
+  public synchronized long getStageTime(String name) {
+    return stages.getOrDefault(name, 0L);
+  }
+
+  //Fewest iterations that fraction of the converged pixels took at most (0 if none converged).
+  public int percentile(double fraction) {
+    long[] h = getHistogram();
+    long converged = 0;
+    for(int n = 0; n <= maxIterations; n++) {
+      converged += h[n];
+    }
+    long seen = 0;
+    for(int n = 0; n <= maxIterations; n++) {
+      seen += h[n];
+      if(seen > 0 && seen >= fraction * converged) {
+        return n;
+      }
+    }
+    return 0;
+  }
+
+  //alphaFactor that makes 99% of the converged pixels less than fully opaque, so the iteration bands show.
+  //(Same rule of thumb as the comment in the application classes, but from the iterations pixels actually
+  //took instead of N.)
+  public int suggestAlphaFactor() {
+    return Math.max(1, 255 / Math.max(1, percentile(0.99)));
+  }
+
+  //Pixels per second over stage name (0 if it took no time).
+  public double pixelsPerSecond(String name) {
+    long ns = getStageTime(name);
+    return ns > 0 ? getPixels() * 1e9 / ns : 0;
+  }
+
+  //One line of key=value pairs with the main numbers, easy to grep out of logs.
+  public synchronized String summary() {
+    long pixels = getPixels();
+    long total = 0;
+    for(long ns : stages.values()) {
+      total += ns;
+    }
+    StringBuilder s = new StringBuilder();
+    s.append("pixels=").append(pixels);
+    s.append(" nonConverged=").append(getNonConverged());
+    s.append(" extraBasin=").append(getExtraBasin());
+    s.append(" cycles=").append(getCycles());
+    s.append(" N=").append(maxIterations);
+    s.append(" p50=").append(percentile(0.5));
+    s.append(" p99=").append(percentile(0.99));
+    s.append(" ms=").append(total / 1000000);
+    s.append(" pixelsPerSecond=").append(total > 0 ? Math.round(pixels * 1e9 / total) : 0);
+    s.append(" suggestedAlphaFactor=").append(suggestAlphaFactor());
+    return s.toString();
+  }
+
+  //Everything above as a few lines of text: the summary line, the time of each stage, and the histogram as
+  //a bar chart.
+  public synchronized String report() {
+    StringBuilder s = new StringBuilder(summary());
+    s.append('\n');
+    for(Map.Entry<String, Long> stage : stages.entrySet()) {
+      s.append(String.format("  %-8s %8d ms%n", stage.getKey(), stage.getValue() / 1000000));
+    }
+    long[] h = getHistogram();
+    long most = 1;
+    for(long c : h) {
+      most = Math.max(most, c);
+    }
+    for(int n = 0; n < h.length; n++) {
+      if(h[n] == 0) {
+        continue;
+      }
+      s.append(String.format("  %5d%s %10d %s%n", n, n > maxIterations ? "+" : " ", h[n],
+                             "#".repeat((int) (40 * h[n] / most))));
+    }
+    return s.toString();
+  }
+}
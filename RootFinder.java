@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/* Finds the roots an iterative method converges to in a window, so they don't have to be worked out and
+ * typed in by hand - handy for functions like sin() that have infinitely many. The method is run from a
+ * sparse grid of starting points, and the points it converges to are gathered into clusters; each cluster
+ * is a root. Roots whose basins are too small to be hit by the grid can be missed, and their pixels then
+ * end up in the "extra" basin, so use a finer grid if that happens.
+ * */
+
+public class RootFinder {
+
+  private final IterativeMethod solver;
+
+  public RootFinder(IterativeMethod solver) {
+    this.solver = solver;
+  }
+
+  //Run the method from a columns x rows grid of points spread over window, and return the different points
+  //it converged to (counting points within radius/2 of each other as the same), sorted by real part and
+  //then imaginary part so the same roots always come out in the same order.
+  public List<Complex> find(Window window, int columns, int rows, double radius) {
+    //Each cluster's sum of points and how many there are; the root is their average.
+    ArrayList<double[]> clusters = new ArrayList<double[]>();
+    SolveResult result = new SolveResult();
+    for(int r = 0; r < rows; r++) {
+      for(int c = 0; c < columns; c++) {
+        //(The middle of each cell of the grid.)
+        double x = window.getXLow() + (c + 0.5) / columns * (window.getXHigh() - window.getXLow());
+        double y = window.getYLow() + (r + 0.5) / rows * (window.getYHigh() - window.getYLow());
+        solver.solve(x, y, result);
+        if(!result.isConverged() || Double.isNaN(result.getRe()) || Double.isNaN(result.getIm())) {
+          continue;
+        }
+        add(clusters, result.getRe(), result.getIm(), radius / 2);
+      }
+    }
+    ArrayList<Complex> roots = new ArrayList<Complex>();
+    for(double[] cluster : clusters) {
+      roots.add(new Complex(cluster[0] / cluster[2], cluster[1] / cluster[2]));
+    }
+    roots.sort(Comparator.comparingDouble(Complex::getA).thenComparingDouble(Complex::getB));
+    return roots;
+  }
+
+  //Add re + im*i to the first cluster whose average is within distance of it, or start a new one.
+  private static void add(ArrayList<double[]> clusters, double re, double im, double distance) {
+    for(double[] cluster : clusters) {
+      double da = re - cluster[0] / cluster[2];
+      double db = im - cluster[1] / cluster[2];
+      if(Math.sqrt( (da*da) + (db*db) ) < distance) {
+        cluster[0] += re;
+        cluster[1] += im;
+        cluster[2]++;
+        return;
+      }
+    }
+    clusters.add(new double[] {re, im, 1});
+  }
+}
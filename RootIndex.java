@@ -0,0 +1,113 @@
+import java.util.Arrays;
+import java.util.List;
+
+/* Finds which of a list of roots a point is within radius of, in about the same time however many roots
+ * there are. The plane is cut into square cells 2*radius on a side and each root is filed under its cell
+ * in a hash table, so a point only has to be compared with the roots in the (at most 4) cells its radius
+ * reaches into. With only a few roots it's quicker to just compare with all of them, so that's done instead.
+ *
+ * If a point is near more than one root, the one earliest in the list wins, the same as checking the roots
+ * in order.
+ * */
+
+public class RootIndex {
+
+  //Up to this many roots are just checked one by one.
+  private static final int LINEAR_ROOTS = 8;
+
+  private final double radius;
+  private final double cell;
+  private final double[] rootA;
+  private final double[] rootB;
+  //Open addressing hash table of the cells with roots in them: the cell's key, and the first root in it
+  //(or -1 for an empty slot). next[r] is the next root in the same cell as root r, or -1.
+  private final long[] keys;
+  private final int[] first;
+  private final int[] next;
+  private final int mask;
+
+  public RootIndex(List<Complex> roots, double radius) {
+    this.radius = radius;
+    cell = 2 * radius;
+    int n = roots.size();
+    rootA = new double[n];
+    rootB = new double[n];
+    next = new int[n];
+    int size = Integer.highestOneBit(Math.max(4 * n, 2) - 1) << 1;
+    keys = new long[size];
+    first = new int[size];
+    mask = size - 1;
+    Arrays.fill(first, -1);
+    //Add the roots in reverse, so each cell's list ends up in the roots' original order.
+    for(int r = n - 1; r >= 0; r--) {
+      rootA[r] = roots.get(r).getA();
+      rootB[r] = roots.get(r).getB();
+      long key = key(cellOf(rootA[r]), cellOf(rootB[r]));
+      int slot = slot(key);
+      if(first[slot] < 0) {
+        keys[slot] = key;
+      }
+      next[r] = first[slot];
+      first[slot] = r;
+    }
+  }
+
+  //Number of the first root within radius of re + im*i, or -1 if there isn't one.
+  public int find(double re, double im) {
+    if(rootA.length <= LINEAR_ROOTS) {
+      for(int r = 0; r < rootA.length; r++) {
+        if(near(r, re, im)) {
+          return r;
+        }
+      }
+      return -1;
+    }
+    //(Points too far out to have a cell, or NaN, aren't near anything.)
+    if(!(Math.abs(re) < 1e9 * cell && Math.abs(im) < 1e9 * cell)) {
+      return -1;
+    }
+    long x0 = cellOf(re - radius), x1 = cellOf(re + radius);
+    long y0 = cellOf(im - radius), y1 = cellOf(im + radius);
+    int best = -1;
+    for(long x = x0; x <= x1; x++) {
+      for(long y = y0; y <= y1; y++) {
+        int slot = slot(key(x, y));
+        for(int r = first[slot]; r >= 0; r = next[r]) {
+          if((best < 0 || r < best) && near(r, re, im)) {
+            best = r;
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  public int size() {
+    return rootA.length;
+  }
+
+  //(Same comparison as the original testBasin.)
+  private boolean near(int r, double re, double im) {
+    double da = re - rootA[r];
+    double db = im - rootB[r];
+    return Math.sqrt( (da*da) + (db*db) ) < radius;
+  }
+
+  private long cellOf(double v) {
+    return (long) Math.floor(v / cell);
+  }
+
+  private static long key(long x, long y) {
+    return (x << 32) ^ (y & 0xFFFFFFFFL);
+  }
+
+  //Slot of key in the table: where it is, or the empty slot where it would go.
+  private int slot(long key) {
+    int h = (int) (key ^ (key >>> 29) ^ (key >>> 47)) * 0x9E3779B9;
+    int slot = (h ^ (h >>> 16)) & mask;
+    while(first[slot] >= 0 && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+}
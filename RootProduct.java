@@ -0,0 +1,86 @@
+import java.util.List;
+
+/* A polynomial kept as the product of (z - r) over its roots r, instead of multiplied out into coefficients.
+ * Multiplying out loses precision near roots that are close together or repeated (the coefficients get big
+ * and cancel, see Expression.MAX_MULTIPLIED_DEGREE), so a polynomial with lots of roots is only right in
+ * product form. f, f' and f'' still come from one pass over the roots, by the product rule, without dividing
+ * by anything, so it's O(n) for n roots and works at the roots themselves.
+ * */
+
+public class RootProduct implements ComplexEvaluator {
+
+  //Root m is re[m] + im[m]*i.
+  private final double[] re;
+  private final double[] im;
+
+  public RootProduct(List<Complex> roots) {
+    if(roots.isEmpty()) {
+      throw new IllegalArgumentException("Need at least one root");
+    }
+    re = new double[roots.size()];
+    im = new double[roots.size()];
+    for(int m = 0; m < roots.size(); m++) {
+      re[m] = roots.get(m).getA();
+      im[m] = roots.get(m).getB();
+    }
+  }
+
+  //The polynomial with roots, for NFPIMethod or HalleysMethod: a Polynomial (which gets BatchNewton and
+  //everything else that's only done for those) if it's safe to multiply out, or a RootProduct if there are
+  //more roots than that.
+  public static ComplexFunction toFunction(List<Complex> roots, double k) {
+    if(roots.size() <= Expression.MAX_MULTIPLIED_DEGREE) {
+      return Polynomial.fromRoots(roots).toFunction(k);
+    }
+    return new RootProduct(roots).toFunction(k);
+  }
+
+  //Multiplying in the roots one at a time: with p, d and s the f, f' and f'' of the roots so far,
+  //multiplying by (z - r) gives p(z - r), d(z - r) + p and s(z - r) + 2d.
+  public void evaluate(double x, double y, int order, double[] out) {
+    double pa = 1, pb = 0;
+    double da = 0, db = 0;
+    double sa = 0, sb = 0;
+    for(int m = 0; m < re.length; m++) {
+      double wa = x - re[m];
+      double wb = y - im[m];
+      double t;
+      if(order == 2) {
+        t = (sa * wa) - (sb * wb) + 2 * da;
+        sb = (sb * wa) + (sa * wb) + 2 * db;
+        sa = t;
+      }
+      t = (da * wa) - (db * wb) + pa;
+      db = (db * wa) + (da * wb) + pb;
+      da = t;
+      t = (pa * wa) - (pb * wb);
+      pb = (pb * wa) + (pa * wb);
+      pa = t;
+    }
+    out[0] = pa;
+    out[1] = pb;
+    out[2] = da;
+    out[3] = db;
+    if(order == 2) {
+      out[4] = sa;
+      out[5] = sb;
+    }
+  }
+
+  //This product as a ComplexFunction, with f, f' and f'' all coming from evaluate(). Its source is the
+  //roots, so RenderCache can tell it from other functions.
+  public ComplexFunction toFunction(double k) {
+    StringBuilder source = new StringBuilder("roots=");
+    for(int m = 0; m < re.length; m++) {
+      source.append(re[m]).append(',').append(im[m]).append(';');
+    }
+    return new ComplexFunction(z -> part(z, 0), z -> part(z, 2), z -> part(z, 4), this, k, source.toString());
+  }
+
+  //One of f, f' or f'' (starting at index i of the evaluate() output) as a Complex.
+  private Complex part(Complex z, int i) {
+    double[] out = new double[6];
+    evaluate(z.getA(), z.getB(), 2, out);
+    return new Complex(out[i], out[i + 1]);
+  }
+}
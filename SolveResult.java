@@ -0,0 +1,77 @@
+/* Result of running an iterative method from one starting point: where it ended up, how many iterations
+ * it took, and whether it actually converged to within TOL (rather than running out of iterations). With
+ * cycle detection on, also whether it was given up on early for going round a cycle.
+ * 
+ * A SolveResult can also be reused for every pixel a thread renders - the allocation-free solve() methods
+ * write into it, and use its work array as scratch space for the function values.
+ * */
+
+public class SolveResult {
+  
+  //Last iterate, as re + im*i
+  private double re;
+  private double im;
+  private int iterations;
+  private boolean converged;
+  private boolean cycle;
+  
+  //Scratch space for f, f' and f'' (two doubles each) used by the allocation-free solvers.
+  final double[] work = new double[6];
+  
+  //Empty result, to be filled in by a solver.
+  public SolveResult() {
+  }
+  
+  public SolveResult(Complex root, int iterations, boolean converged) {
+    set(root.getA(), root.getB(), iterations, converged);
+  }
+  
+  //Set all the fields at once, after instantiation.
+  public void set(double re, double im, int iterations, boolean converged) {
+    set(re, im, iterations, converged, false);
+  }
+  
+  //Same, for a point that might have been caught in a cycle.
+  public void set(double re, double im, int iterations, boolean converged, boolean cycle) {
+    this.re = re;
+    this.im = im;
+    this.iterations = iterations;
+    this.converged = converged;
+    this.cycle = cycle;
+  }
+  
+  //Last iterate
+  public Complex getRoot() {
+    return new Complex(re, im);
+  }
+  
+  //Real part of the last iterate
+  public double getRe() {
+    return re;
+  }
+  
+  //Imaginary part of the last iterate
+  public double getIm() {
+    return im;
+  }
+  
+  //Number of iterations before convergence (or the maximum, if it didn't converge)
+  public int getIterations() {
+    return iterations;
+  }
+  
+  public boolean isConverged() {
+    return converged;
+  }
+  
+  //Whether the iteration was stopped for going round a cycle (see IterativeMethod.cycling()). Such points
+  //didn't converge, and come out with the maximum iterations + 1 like any other point that didn't.
+  public boolean isCycle() {
+    return cycle;
+  }
+  
+  public String toString() {
+    return re + " + " + im + "i after " + iterations + (converged ? " iterations" : cycle ? " iterations (cycle)"
+                                                      : " iterations (not converged)");
+  }
+}
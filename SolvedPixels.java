@@ -0,0 +1,75 @@
+/* The pixels of a render solved so far, for Newton's method to stop on. An orbit that lands on a pixel that's
+ * already been solved would just go on the way that pixel's did, so there's no need to follow it any further:
+ * it ends up in that pixel's basin, after its own iterations plus that pixel's. (Orbits at low k wander a long
+ * way before they settle, often right across areas that have already been solved.)
+ *
+ * Landing anywhere in a pixel isn't quite the same as starting from its middle, though, so only pixels whose
+ * four neighbours are all solved and in the same basin count - inside a basin rather than on an edge, where the
+ * next point over could go anywhere. Even so, orbits can stop on a pixel that a render without this would have
+ * taken somewhere else, now and then, and iteration counts can be off by one or two. Which pixels have been
+ * solved when also depends on the order the threads get to them, so two renders can differ slightly.
+ * */
+
+public class SolvedPixels {
+
+  private final int[] samples;
+  private final int width;
+  private final int height;
+  //Pixel (i, j) is at x(i) + y(j)*i, so the pixel nearest re + im*i is i = (re - xLow)*xScale and
+  //j = (yHigh - im)*yScale, rounded.
+  private final double xLow;
+  private final double yHigh;
+  private final double xScale;
+  private final double yScale;
+  private final int rootCount;
+  private final int maxIterations;
+
+  //samples is the array the render is filling in for window (width*height, row by row), which has to start
+  //out all 0 or RenderEngine.UNSOLVED. Only pixels in the basins of the rootCount roots that converged within
+  //maxIterations are stopped on.
+  public SolvedPixels(int[] samples, Window window, int rootCount, int maxIterations) {
+    if(samples.length < window.getWidth() * window.getHeight()) {
+      throw new IllegalArgumentException("samples has to hold " + window.getWidth() + "x" + window.getHeight()
+                                           + " pixels, not " + samples.length);
+    }
+    this.samples = samples;
+    width = window.getWidth();
+    height = window.getHeight();
+    xLow = window.getXLow();
+    yHigh = window.getYHigh();
+    xScale = width / (window.getXHigh() - window.getXLow());
+    yScale = height / (window.getYHigh() - window.getYLow());
+    this.rootCount = rootCount;
+    this.maxIterations = maxIterations;
+  }
+
+  //Sample of the solved pixel that re + im*i is in, if it can be stopped on, or -1 if it can't (outside the
+  //window or on its edge, not solved yet, not inside a basin, ...). Can be called while other threads are
+  //still filling in samples.
+  public int find(double re, double im) {
+    double fi = (re - xLow) * xScale + 0.5;
+    double fj = (yHigh - im) * yScale + 0.5;
+    //(Also false for NaN.)
+    if(!(fi >= 1 && fi < width - 1 && fj >= 1 && fj < height - 1)) {
+      return -1;
+    }
+    int n = (int) fj * width + (int) fi;
+    int sample = samples[n];
+    int iterations = BasinSampler.iterations(sample);
+    int basin = BasinSampler.basin(sample);
+    //(RenderEngine.UNSOLVED has basin 0xFFFF and 0 is 0 iterations, so neither gets past this.)
+    if(iterations == 0 || iterations > maxIterations || basin >= rootCount) {
+      return -1;
+    }
+    if(!same(samples[n - 1], basin) || !same(samples[n + 1], basin) || !same(samples[n - width], basin)
+         || !same(samples[n + width], basin)) {
+      return -1;
+    }
+    return sample;
+  }
+
+  //Whether sample is solved and in basin.
+  private static boolean same(int sample, int basin) {
+    return BasinSampler.basin(sample) == basin && BasinSampler.iterations(sample) != 0;
+  }
+}
@@ -0,0 +1,182 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/* Writes a PNG a few rows at a time, so an image never has to be in memory all at once (unlike ImageIO.write,
+ * which needs the whole BufferedImage). Rows are given as ARGB ints, the same as BufferedImage.TYPE_INT_ARGB,
+ * and come out as an 8-bit RGBA PNG that reads back the same as one written by ImageIO.
+ * */
+
+public class StreamingPngWriter implements Closeable {
+
+  private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+  //Size of the IDAT chunks the compressed data is cut into.
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final DataOutputStream out;
+  private final int width;
+  private final int height;
+  private int rowsWritten = 0;
+
+  //Compressed image data goes into chunks, which go into out.
+  private final ChunkStream idat;
+  private final DeflaterOutputStream deflate;
+  private final Deflater deflater;
+
+  //This row and the one above, as filtered RGBA bytes (with room for the filter type byte in front).
+  private byte[] row;
+  private byte[] prev;
+  private final byte[][] filtered = new byte[3][];
+
+  public StreamingPngWriter(OutputStream out, int width, int height) throws IOException {
+    this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  //Same, with a zlib compression level from 1 (Deflater.BEST_SPEED) to 9 (Deflater.BEST_COMPRESSION).
+  //Lower levels are several times quicker to write, for a somewhat bigger file.
+  public StreamingPngWriter(OutputStream out, int width, int height, int level) throws IOException {
+    this.out = new DataOutputStream(out);
+    deflater = new Deflater(level);
+    this.width = width;
+    this.height = height;
+    row = new byte[4 * width];
+    prev = new byte[4 * width];
+    for(int f = 0; f < filtered.length; f++) {
+      filtered[f] = new byte[4 * width + 1];
+    }
+
+    this.out.write(SIGNATURE);
+    ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+    DataOutputStream d = new DataOutputStream(ihdr);
+    d.writeInt(width);
+    d.writeInt(height);
+    d.writeByte(8);   //bits per sample
+    d.writeByte(6);   //color type: RGBA
+    d.writeByte(0);   //compression: deflate
+    d.writeByte(0);   //filtering: adaptive
+    d.writeByte(0);   //no interlacing
+    writeChunk("IHDR", ihdr.toByteArray(), ihdr.size());
+
+    idat = new ChunkStream();
+    deflate = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+  }
+
+  //Write the next rows of the image, which are argb[offset] onwards, width pixels per row.
+  public void writeRows(int[] argb, int offset, int rows) throws IOException {
+    if(rowsWritten + rows > height) {
+      throw new IllegalStateException("Image only has " + height + " rows");
+    }
+    for(int r = 0; r < rows; r++) {
+      int start = offset + r * width;
+      for(int i = 0; i < width; i++) {
+        int c = argb[start + i];
+        row[4*i] = (byte) (c >> 16);
+        row[4*i + 1] = (byte) (c >> 8);
+        row[4*i + 2] = (byte) c;
+        row[4*i + 3] = (byte) (c >>> 24);
+      }
+      deflate.write(filter());
+      byte[] t = prev;
+      prev = row;
+      row = t;
+      rowsWritten++;
+    }
+  }
+
+  //Filter the current row with None, Sub and Up, and pick whichever gives the smallest sum of absolute
+  //values (the usual PNG heuristic - it makes the data compress much better).
+  private byte[] filter() {
+    byte[] none = filtered[0], sub = filtered[1], up = filtered[2];
+    none[0] = 0;
+    sub[0] = 1;
+    up[0] = 2;
+    long sumNone = 0, sumSub = 0, sumUp = 0;
+    for(int b = 0; b < row.length; b++) {
+      int x = row[b];
+      int left = b >= 4 ? row[b - 4] : 0;
+      int above = rowsWritten > 0 ? prev[b] : 0;
+      none[b + 1] = (byte) x;
+      sub[b + 1] = (byte) (x - left);
+      up[b + 1] = (byte) (x - above);
+      sumNone += Math.abs((int) none[b + 1]);
+      sumSub += Math.abs((int) sub[b + 1]);
+      sumUp += Math.abs((int) up[b + 1]);
+    }
+    if(sumSub < sumNone && sumSub <= sumUp) {
+      return sub;
+    }
+    if(sumUp < sumNone) {
+      return up;
+    }
+    return none;
+  }
+
+  //Finish the image. All the rows must have been written - if they weren't (the render failed part way,
+  //say), this throws IllegalStateException, but only after closing the stream, so the half written file can
+  //be deleted. The deflater and stream are let go of whatever happens.
+  public void close() throws IOException {
+    try {
+      if(rowsWritten == height) {
+        deflate.finish();
+        idat.flushChunk();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+      }
+    } finally {
+      deflater.end();
+      out.close();
+    }
+    if(rowsWritten != height) {
+      throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+    }
+  }
+
+  private void writeChunk(String type, byte[] data, int length) throws IOException {
+    byte[] t = type.getBytes("US-ASCII");
+    CRC32 crc = new CRC32();
+    crc.update(t);
+    crc.update(data, 0, length);
+    out.writeInt(length);
+    out.write(t);
+    out.write(data, 0, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  //Collects compressed bytes and writes them out as IDAT chunks.
+  private class ChunkStream extends OutputStream {
+    private final byte[] buf = new byte[CHUNK_SIZE];
+    private int count = 0;
+
+    public void write(int b) throws IOException {
+      if(count == buf.length) {
+        flushChunk();
+      }
+      buf[count++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      while(len > 0) {
+        if(count == buf.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buf.length - count);
+        System.arraycopy(b, off, buf, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    void flushChunk() throws IOException {
+      if(count > 0) {
+        writeChunk("IDAT", buf, count);
+        count = 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,228 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Symmetries of a render, so only part of the image has to be solved. If the polynomial has real coefficients
+ * (its roots are real or come in conjugate pairs), Newton's and Halley's methods do the same thing either
+ * side of the real axis, so the basins are a mirror image of each other there. If it's z^n - c, or anything
+ * else with only every nth power, they look the same turned by 1/n of a turn. Each symmetry also swaps the roots
+ * around, so the mirrored basin of a root is the basin of its mirror image.
+ *
+ * Only symmetries that take pixels to pixels can be used to fill in an image: the eight that take a square to
+ * itself (mirrors in the axes and diagonals, and half and quarter turns), when the window is lined up with them
+ * - e.g. mirroring in the real axis needs the rows to be spaced evenly either side of y = 0, and quarter turns
+ * need square pixels. sample() then solves one pixel of each set that the symmetries take to each other, and
+ * fills in the rest. With real coefficients and a window centered on the real axis that's half the image; z^4
+ * - 1 on a square window centered on 0 has all eight, so only an eighth is solved.
+ *
+ * The pixels filled in get exactly the iterations and (swapped) basin of the one they're copied from. The
+ * image is the same as solving every pixel, apart from where rounding in the coordinates of the two pixels
+ * tips a point on the edge of a basin one way or the other.
+ * */
+
+public class Symmetry {
+
+  //Coefficients (and differences between them) smaller than this, relative to the biggest one, count as 0.
+  static final double EPSILON = 1e-12;
+  //Windows this close to lined up with a symmetry (in pixels) count as lined up.
+  static final double GRID_EPSILON = 1e-6;
+
+  //A map x' = a*x + b*y, y' = c*x + d*y of the plane, as the map i' = ii*i + ij*j + i0, j' = ji*i + jj*j + j0
+  //of pixels, and what it does to basins: basin back[b] goes to basin b. (Basins past the roots, for points
+  //that didn't end up at one, stay the same.)
+  private static class Transform {
+    final String name;
+    final int ii, ij, i0, ji, jj, j0;
+    final int[] back;
+
+    Transform(String name, int ii, int ij, int i0, int ji, int jj, int j0, int[] back) {
+      this.name = name;
+      this.ii = ii;
+      this.ij = ij;
+      this.i0 = i0;
+      this.ji = ji;
+      this.jj = jj;
+      this.j0 = j0;
+      this.back = back;
+    }
+  }
+
+  //The symmetries found, not counting doing nothing.
+  private final List<Transform> transforms;
+  private final int width;
+  private final int height;
+  private final int rootCount;
+
+  private Symmetry(List<Transform> transforms, Window window, int rootCount) {
+    this.transforms = transforms;
+    this.width = window.getWidth();
+    this.height = window.getHeight();
+    this.rootCount = rootCount;
+  }
+
+  //The symmetries of rendering window with solver and roots (which all have to be there, so every symmetry can
+  //swap them around). Only Polynomials have any - for anything else this finds none, and sample() just solves
+  //every pixel.
+  public static Symmetry of(IterativeMethod solver, List<Complex> roots, Window window) {
+    List<Transform> found = new ArrayList<Transform>();
+    ComplexEvaluator eval = solver.getFunction().getEvaluator();
+    if(eval instanceof Polynomial) {
+      Polynomial poly = (Polynomial) eval;
+      RootIndex index = new RootIndex(roots, BasinSampler.MATCH_RADIUS);
+      //(x, y) -> (a*x + b*y, c*x + d*y) for the eight symmetries of a square, besides doing nothing.
+      int[][] maps = {{1, 0, 0, -1}, {-1, 0, 0, 1}, {-1, 0, 0, -1}, {0, -1, 1, 0}, {0, 1, -1, 0}, {0, 1, 1, 0},
+                      {0, -1, -1, 0}};
+      String[] names = {"mirror in the real axis", "mirror in the imaginary axis", "half turn", "quarter turn",
+                        "three quarter turn", "mirror in y = x", "mirror in y = -x"};
+      for(int t = 0; t < maps.length; t++) {
+        int[] m = maps[t];
+        if(!symmetric(poly, m)) {
+          continue;
+        }
+        Transform transform = onPixels(names[t], m, window, roots, index);
+        if(transform != null) {
+          found.add(transform);
+        }
+      }
+    }
+    return new Symmetry(found, window, roots.size());
+  }
+
+  //Whether Newton's method for poly does the same thing on both sides of map m: poly(m(z)) has to be a
+  //constant times poly(z) (for turns) or times the conjugate of poly(z) (for mirrors). The constant doesn't
+  //matter, since neither f/f' nor Halley's step change when f is multiplied by one.
+  private static boolean symmetric(Polynomial poly, int[] m) {
+    //m is z -> w*z for turns, and z -> w*conj(z) for mirrors, with w = a + c*i a whole number of quarter turns.
+    boolean mirror = m[0] * m[3] - m[1] * m[2] < 0;
+    int turns = m[0] == 1 ? 0 : m[2] == 1 ? 1 : m[0] == -1 ? 2 : 3;
+    int degree = poly.degree();
+    double biggest = 0;
+    for(int p = 0; p <= degree; p++) {
+      biggest = Math.max(biggest, poly.coefficient(p).abs());
+    }
+    //poly(m(z)) has coefficients c_p * w^p (of z^p for turns, conj(z)^p for mirrors), which have to be lambda
+    //times c_p (or conj(c_p) for mirrors), with lambda from the leading coefficient.
+    Complex lead = poly.coefficient(degree);
+    Complex lambda = quarterTurns(lead, turns * degree).over(mirrored(lead, mirror));
+    for(int p = 0; p < degree; p++) {
+      Complex c = poly.coefficient(p);
+      Complex mapped = quarterTurns(c, turns * p);
+      if(mapped.minus(lambda.times(mirrored(c, mirror))).abs() > EPSILON * biggest) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //c, or its conjugate if mirror is true.
+  private static Complex mirrored(Complex c, boolean mirror) {
+    return mirror ? new Complex(c.getA(), -c.getB()) : c;
+  }
+
+  //c * i^q, exactly.
+  private static Complex quarterTurns(Complex c, int q) {
+    switch(Math.floorMod(q, 4)) {
+      case 0: return c;
+      case 1: return new Complex(-c.getB(), c.getA());
+      case 2: return new Complex(-c.getA(), -c.getB());
+      default: return new Complex(c.getB(), -c.getA());
+    }
+  }
+
+  //Map m on the pixels of window, or null if it doesn't take pixels to pixels, or takes a root to something
+  //that isn't one of roots.
+  private static Transform onPixels(String name, int[] m, Window window, List<Complex> roots, RootIndex index) {
+    //Pixel (i, j) is at x = xLow + i*px, y = yHigh - j*py.
+    double xLow = window.getXLow();
+    double yHigh = window.getYHigh();
+    double px = (window.getXHigh() - xLow) / window.getWidth();
+    double py = (yHigh - window.getYLow()) / window.getHeight();
+    //Maps that swap x and y need square pixels.
+    if(m[1] != 0 && Math.abs(px - py) > GRID_EPSILON * Math.min(px, py)) {
+      return null;
+    }
+    //Substituting into x' = a*x + b*y and y' = c*x + d*y gives i' = a*i - b*j + i0 and j' = -c*i + d*j + j0,
+    //where the offsets have to be whole numbers of pixels.
+    double i0 = (m[0] * xLow + m[1] * yHigh - xLow) / px;
+    double j0 = (yHigh - m[2] * xLow - m[3] * yHigh) / py;
+    if(Math.abs(i0 - Math.rint(i0)) > GRID_EPSILON || Math.abs(j0 - Math.rint(j0)) > GRID_EPSILON) {
+      return null;
+    }
+    //Basin b goes to the basin of m(root b).
+    int[] back = new int[roots.size()];
+    Arrays.fill(back, -1);
+    for(int b = 0; b < roots.size(); b++) {
+      Complex r = roots.get(b);
+      int to = index.find(m[0] * r.getA() + m[1] * r.getB(), m[2] * r.getA() + m[3] * r.getB());
+      if(to < 0 || back[to] >= 0) {
+        return null;
+      }
+      back[to] = b;
+    }
+    return new Transform(name, m[0], -m[1], (int) Math.rint(i0), -m[2], m[3], (int) Math.rint(j0), back);
+  }
+
+  //Number of pixels the image is cut into copies of (1 if there are no symmetries to use).
+  public int order() {
+    return transforms.size() + 1;
+  }
+
+  //Sample every pixel of window into samples (row by row), only solving one pixel of each set that the
+  //symmetries take to each other and filling in the rest from it. Returns the number of pixels solved.
+  public long sample(RenderEngine engine, RenderEngine.Sampler sampler, int[] samples) {
+    //Solve the pixels that come first of their set: they're left UNSOLVED, for sampleMissing().
+    for(int j = 0; j < height; j++) {
+      for(int i = 0; i < width; i++) {
+        samples[j * width + i] = source(i, j) < 0 ? RenderEngine.UNSOLVED : 0;
+      }
+    }
+    long solved = engine.sampleMissing(width, height, sampler, samples);
+    //Then copy them to the others.
+    for(int j = 0; j < height; j++) {
+      for(int i = 0; i < width; i++) {
+        int t = source(i, j);
+        if(t < 0) {
+          continue;
+        }
+        Transform transform = transforms.get(t);
+        int from = samples[(transform.ji * i + transform.jj * j + transform.j0) * width
+                           + transform.ii * i + transform.ij * j + transform.i0];
+        int basin = BasinSampler.basin(from);
+        if(basin < rootCount) {
+          basin = transform.back[basin];
+        }
+        samples[j * width + i] = BasinSampler.pack(basin, BasinSampler.iterations(from));
+      }
+    }
+    return solved;
+  }
+
+  //The transform that takes pixel (i, j) to the first pixel of its set (the lowest row, then column, inside
+  //the image), or -1 if it's the first itself.
+  private int source(int i, int j) {
+    int best = -1;
+    int first = j * width + i;
+    for(int t = 0; t < transforms.size(); t++) {
+      Transform transform = transforms.get(t);
+      int i1 = transform.ii * i + transform.ij * j + transform.i0;
+      int j1 = transform.ji * i + transform.jj * j + transform.j0;
+      if(i1 >= 0 && i1 < width && j1 >= 0 && j1 < height && j1 * width + i1 < first) {
+        first = j1 * width + i1;
+        best = t;
+      }
+    }
+    return best;
+  }
+
+  //The symmetries found, e.g. "mirror in the real axis, half turn, mirror in the imaginary axis", or "none".
+  public String toString() {
+    if(transforms.isEmpty()) {
+      return "none";
+    }
+    StringBuilder s = new StringBuilder();
+    for(Transform transform : transforms) {
+      s.append(s.length() > 0 ? ", " : "").append(transform.name);
+    }
+    return s.toString();
+  }
+}
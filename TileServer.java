@@ -0,0 +1,504 @@
+/* Serves the fractal as 256x256 PNG tiles over HTTP, z/x/y the same way as online maps, with a page that
+ * shows them for panning and zooming around in a browser. Tiles are rendered on demand by a pool of worker
+ * threads (one tile each at a time), and the finished PNGs are kept in memory so going back over the same
+ * area doesn't render anything.
+ *
+ * The page tells the server which tiles are on the screen every time it moves. Workers always take the
+ * queued tile nearest the middle of the screen next, and tiles the screen has moved away from are cancelled,
+ * including ones being rendered, so the tiles that are on the screen never wait behind a long pan. Requests
+ * for tiles away from the screen are turned down straight away, and the page asks again for any tile it
+ * still shows.
+ * */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+/*Instructions for Use
+ *
+ * Set the function and roots the same way as in ComplexImageMaker, and the square of the plane that tile
+ * 0/0/0 covers, then run the application (optionally with a port, 8080 by default):
+ *
+ *    java TileServer [port]
+ *
+ * and open http://localhost:8080/ in a browser. Drag to pan and use the mouse wheel to zoom. Each zoom level
+ * halves the size of the tiles in the plane; past about zoom level 40 doubles run out of precision. Tiles
+ * are also at http://localhost:8080/tiles/z/x/y.png for anything else that reads map tiles (x goes right and
+ * y goes down from the top left of tile 0/0/0, and can be negative or go past 2^z to see outside it), and
+ * http://localhost:8080/stats shows how many tiles were rendered, cached and cancelled.
+ *
+ * The server only listens on localhost. cacheBytes is how much memory the PNGs in the cache can take (a
+ * tile is usually 5-50 KB); the least recently used ones are dropped first.
+ */
+
+public class TileServer {
+
+  public static final int TILE = 256;
+  //Deepest zoom level served.
+  public static final int MAX_ZOOM = 40;
+  //Tiles this far (in tiles) outside the screen aren't cancelled, so a small wiggle doesn't throw work away.
+  private static final double MARGIN = 1;
+
+  //One tile, queued or being rendered. Everyone who asks for it while it is waits on the same png.
+  static class Job {
+    final int z;
+    //(long, since past zoom level 31 there are more than 2^31 tiles across)
+    final long x;
+    final long y;
+    final String key;
+    final CompletableFuture<byte[]> png = new CompletableFuture<byte[]>();
+    //Set when the screen has moved away, so a worker rendering it can give up.
+    volatile boolean cancelled = false;
+
+    Job(int z, long x, long y) {
+      this.z = z;
+      this.x = x;
+      this.y = y;
+      this.key = key(z, x, y);
+    }
+  }
+
+  private final IterativeMethod solver;
+  private final List<Complex> roots;
+  private final Palette palette;
+  private final boolean earlyExit;
+  //Top left corner and size of tile 0/0/0.
+  private final double left;
+  private final double top;
+  private final double size;
+  private final long cacheBytes;
+
+  //Everything below is guarded by this.
+  //Finished tiles, least recently used first.
+  private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  private long cached = 0;
+  //Tiles queued or being rendered, and just the queued ones.
+  private final Map<String, Job> jobs = new HashMap<String, Job>();
+  private final List<Job> queue = new ArrayList<Job>();
+  //What's on the screen, in tiles at zoom level viewZ (null until the page says).
+  private int viewZ = 0;
+  private double[] view = null;
+  private long rendered = 0;
+  private long hits = 0;
+  private long cancelledCount = 0;
+
+  //Server for solver's function, with tile 0/0/0 the square from (left, top) to (left + size, top - size),
+  //rendering on workers threads.
+  public TileServer(IterativeMethod solver, List<Complex> roots, Palette palette, boolean earlyExit, double left,
+                    double top, double size, long cacheBytes, int workers) {
+    if(!(size > 0) || workers < 1) {
+      throw new IllegalArgumentException("Bad size " + size + " or workers " + workers);
+    }
+    this.solver = solver;
+    this.roots = new ArrayList<Complex>(roots);
+    this.palette = palette;
+    this.earlyExit = earlyExit;
+    this.left = left;
+    this.top = top;
+    this.size = size;
+    this.cacheBytes = cacheBytes;
+    for(int w = 0; w < workers; w++) {
+      Thread worker = new Thread(this::work, "tile-worker-" + w);
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    long cacheBytes = 256L << 20;
+    int workers = Runtime.getRuntime().availableProcessors();
+    boolean earlyExit = false;
+
+    //Set the function (see ComplexImageMaker) - this one is z^3 - z - and its roots.
+    ComplexFunction fn = new Polynomial(0, -1, 0, 1).toFunction(1);
+    NFPIMethod solver = new NFPIMethod(fn);
+    ArrayList<Complex> basinArray = new ArrayList<Complex>();
+    basinArray.add(new Complex(1, 0));
+    basinArray.add(new Complex(0, 0));
+    basinArray.add(new Complex(-1, 0));
+
+    //Tile 0/0/0 covers -2 to 2 both ways.
+    double left = -2;
+    double top = 2;
+    double size = 4;
+
+    //Set alphaFactor and colors (one for each root, plus one for points that don't converge).
+    int alphaFactor = 10;
+    int[] col = new int[Math.max(6, basinArray.size() + 1)];
+    col[0] = (255 << 16) | (0 << 8) | 0;
+    col[1] = (255 << 16) | (127 << 8) | 0;
+    col[2] = (255 << 16) | (255 << 8) | 0;
+    col[3] = (0 << 16) | (255 << 8) | 0;
+    col[4] = (0 << 16) | (0 << 8) | 255;
+    col[5] = (143 << 16) | (0 << 8) | 255;
+    for(int i = 6; i < col.length; i++) {
+      col[i] = ((int) (Math.random()*255) << 16) | ((int) (Math.random()*255) << 8) | (int) (Math.random()*255);
+    }
+
+    TileServer tiles = new TileServer(solver, basinArray, new Palette(col, alphaFactor), earlyExit, left, top,
+                                      size, cacheBytes, workers);
+    HttpServer server = tiles.listen(port);
+    System.out.println("Serving on http://localhost:" + server.getAddress().getPort() + "/ with " + workers
+                         + " workers.");
+  }
+
+  //Start serving the page, tiles and stats on localhost:port (0 for any free port).
+  public HttpServer listen(int port) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/", this::handlePage);
+    server.createContext("/tiles/", this::handleTile);
+    server.createContext("/viewport", this::handleViewport);
+    server.createContext("/stats", this::handleStats);
+    //Requests for tiles wait for a worker, so each needs its own thread.
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    return server;
+  }
+
+  static String key(int z, long x, long y) {
+    return z + "/" + x + "/" + y;
+  }
+
+  //Window of tile z/x/y.
+  public Window tileWindow(int z, long x, long y) {
+    double s = size / Math.pow(2, z);
+    double xLow = left + x * s;
+    double yHigh = top - y * s;
+    return new Window(xLow, xLow + s, yHigh - s, yHigh, TILE, TILE);
+  }
+
+  //PNG of tile z/x/y, from the cache or rendered (waiting for a worker). Throws CancellationException if it
+  //isn't near the screen, or the screen moves away from it first.
+  public byte[] tile(int z, long x, long y) throws InterruptedException, ExecutionException {
+    if(z < 0 || z > MAX_ZOOM) {
+      throw new IllegalArgumentException("Zoom has to be 0 to " + MAX_ZOOM + ", not " + z);
+    }
+    Job job;
+    synchronized(this) {
+      String key = key(z, x, y);
+      byte[] png = cache.get(key);
+      if(png != null) {
+        hits++;
+        return png;
+      }
+      job = jobs.get(key);
+      if(job == null) {
+        job = new Job(z, x, y);
+        //(Requests left over from before the screen moved would otherwise keep workers busy. The page asks
+        //again if the tile comes back onto the screen, or if this was only the request getting here before
+        //the screen's new position did.)
+        if(!wanted(job)) {
+          cancelledCount++;
+          throw new CancellationException();
+        }
+        jobs.put(key, job);
+        queue.add(job);
+        notify();
+      }
+    }
+    return job.png.get();
+  }
+
+  //The screen now shows x0 to x1 and y0 to y1 (in tiles, fractions allowed) of zoom level z. Cancels the
+  //tiles that are queued or being rendered away from it, and returns how many there were.
+  public synchronized int setViewport(int z, double x0, double y0, double x1, double y1) {
+    viewZ = z;
+    view = new double[] {x0, y0, x1, y1};
+    int count = 0;
+    for(Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ) {
+      Job job = it.next();
+      if(!wanted(job)) {
+        job.cancelled = true;
+        job.png.cancel(false);
+        it.remove();
+        count++;
+      }
+    }
+    //(Jobs being rendered stop when their worker notices.)
+    queue.removeIf(job -> job.cancelled);
+    cancelledCount += count;
+    return count;
+  }
+
+  //Whether job is on (or near) the screen. Everything is until the page says where the screen is.
+  private boolean wanted(Job job) {
+    return view == null || (job.z == viewZ && job.x + 1 > view[0] - MARGIN && job.x < view[2] + MARGIN
+                              && job.y + 1 > view[1] - MARGIN && job.y < view[3] + MARGIN);
+  }
+
+  //How far job is from the middle of the screen, in tiles of its own zoom level (and further for each level
+  //it's away from the screen's).
+  private double distance(Job job) {
+    if(view == null) {
+      return 0;
+    }
+    double scale = Math.pow(2, job.z - viewZ);
+    double dx = job.x + 0.5 - scale * (view[0] + view[2]) / 2;
+    double dy = job.y + 0.5 - scale * (view[1] + view[3]) / 2;
+    return Math.sqrt( (dx*dx) + (dy*dy) ) + Math.abs(job.z - viewZ) * 1e6;
+  }
+
+  //Take the queued job nearest the middle of the screen, waiting for one if there aren't any. The screen
+  //moves while jobs wait, so they're compared when they're taken rather than kept in order.
+  private synchronized Job next() throws InterruptedException {
+    while(queue.isEmpty()) {
+      wait();
+    }
+    int best = 0;
+    double bestDistance = distance(queue.get(0));
+    for(int n = 1; n < queue.size(); n++) {
+      double d = distance(queue.get(n));
+      if(d < bestDistance) {
+        best = n;
+        bestDistance = d;
+      }
+    }
+    //(Swapped with the last one, so removing it doesn't shift the rest down.)
+    Job job = queue.get(best);
+    queue.set(best, queue.get(queue.size() - 1));
+    queue.remove(queue.size() - 1);
+    return job;
+  }
+
+  private void work() {
+    while(true) {
+      Job job;
+      try {
+        job = next();
+      } catch(InterruptedException x) {
+        return;
+      }
+      byte[] png = null;
+      Exception error = null;
+      try {
+        png = render(job);
+      } catch(Exception x) {
+        error = x;
+      }
+      synchronized(this) {
+        //(If it was cancelled, the tile may have been asked for again since, as a new job.)
+        if(jobs.get(job.key) == job) {
+          jobs.remove(job.key);
+        }
+        if(png != null) {
+          rendered++;
+          cache.put(job.key, png);
+          cached += png.length;
+          //Drop the least recently used tiles until the cache fits.
+          for(Iterator<byte[]> it = cache.values().iterator(); cached > cacheBytes && it.hasNext(); ) {
+            cached -= it.next().length;
+            it.remove();
+          }
+        }
+      }
+      if(png != null) {
+        job.png.complete(png);
+      } else if(!(error instanceof CancellationException)) {
+        System.out.println("Tile " + job.key + ": " + error);
+        job.png.completeExceptionally(error);
+      }
+    }
+  }
+
+  //Render job into a PNG, a row at a time so it can stop as soon as it's cancelled.
+  private byte[] render(Job job) throws IOException {
+    BasinSampler sampler = new BasinSampler(solver, roots, tileWindow(job.z, job.x, job.y), earlyExit);
+    int[] argb = new int[TILE * TILE];
+    int[] row = new int[TILE];
+    for(int j = 0; j < TILE; j++) {
+      if(job.cancelled) {
+        throw new CancellationException();
+      }
+      sampler.sampleRow(j, 0, TILE, row);
+      for(int i = 0; i < TILE; i++) {
+        argb[j * TILE + i] = palette.color(row[i]);
+      }
+    }
+    //Tiles are small and wanted right away, so compress them quickly rather than well.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(StreamingPngWriter png = new StreamingPngWriter(bytes, TILE, TILE, Deflater.BEST_SPEED)) {
+      png.writeRows(argb, 0, TILE);
+    }
+    return bytes.toByteArray();
+  }
+
+  // /tiles/z/x/y.png
+  private void handleTile(HttpExchange exchange) throws IOException {
+    String[] parts = exchange.getRequestURI().getPath().substring("/tiles/".length()).split("/");
+    byte[] png;
+    try {
+      if(parts.length != 3 || !parts[2].endsWith(".png")) {
+        throw new IllegalArgumentException("Expected /tiles/z/x/y.png");
+      }
+      png = tile(Integer.parseInt(parts[0]), Long.parseLong(parts[1]),
+                 Long.parseLong(parts[2].substring(0, parts[2].length() - 4)));
+    } catch(IllegalArgumentException x) {
+      send(exchange, 404, "text/plain", x.getMessage().getBytes(StandardCharsets.UTF_8));
+      return;
+    } catch(CancellationException x) {
+      send(exchange, 503, "text/plain", "Cancelled".getBytes(StandardCharsets.UTF_8));
+      return;
+    } catch(InterruptedException | ExecutionException x) {
+      send(exchange, 500, "text/plain", x.toString().getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    //A tile never changes while the server is running.
+    exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+    send(exchange, 200, "image/png", png);
+  }
+
+  // /viewport?z=&x0=&y0=&x1=&y1=
+  private void handleViewport(HttpExchange exchange) throws IOException {
+    Map<String, String> query = new HashMap<String, String>();
+    String q = exchange.getRequestURI().getRawQuery();
+    for(String pair : q == null ? new String[0] : q.split("&")) {
+      String[] kv = pair.split("=", 2);
+      query.put(kv[0], kv.length > 1 ? kv[1] : "");
+    }
+    try {
+      int count = setViewport(Integer.parseInt(query.get("z")), Double.parseDouble(query.get("x0")),
+                              Double.parseDouble(query.get("y0")), Double.parseDouble(query.get("x1")),
+                              Double.parseDouble(query.get("y1")));
+      send(exchange, 200, "text/plain", ("Cancelled " + count).getBytes(StandardCharsets.UTF_8));
+    } catch(NullPointerException | NumberFormatException x) {
+      send(exchange, 400, "text/plain", "Expected /viewport?z=&x0=&y0=&x1=&y1=".getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private void handleStats(HttpExchange exchange) throws IOException {
+    String stats;
+    synchronized(this) {
+      stats = "rendered=" + rendered + " cacheHits=" + hits + " cancelled=" + cancelledCount + " queued="
+        + queue.size() + " cachedTiles=" + cache.size() + " cachedBytes=" + cached + "\n";
+    }
+    send(exchange, 200, "text/plain", stats.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void handlePage(HttpExchange exchange) throws IOException {
+    if(!exchange.getRequestURI().getPath().equals("/")) {
+      send(exchange, 404, "text/plain", "Not found".getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    send(exchange, 200, "text/html; charset=utf-8", PAGE.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", type);
+    exchange.sendResponseHeaders(status, body.length);
+    try(OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  //The viewer. It keeps the middle of the screen in units of tile 0/0/0, lays out the tiles that cover the
+  //screen, and tells the server whenever the set of them changes. Tiles that go off the screen are removed,
+  //which also stops the browser waiting for them. A tile that fails (the server cancels tiles it thinks are
+  //off the screen, and the screen's position and tile requests can get there in either order) is asked for
+  //again a little later, as long as it's still on the screen.
+  private static final String PAGE = """
+    <!DOCTYPE html>
+    <html><head><title>Newton's method fractal</title>
+    <style>
+      body { margin: 0; overflow: hidden; background: #000; }
+      #map { position: absolute; left: 0; top: 0; right: 0; bottom: 0; cursor: move; }
+      #map img { position: absolute; width: 256px; height: 256px; user-select: none; }
+    </style></head>
+    <body><div id="map"></div>
+    <script>
+      var map = document.getElementById('map');
+      var maxZoom = %d, z = 0, cx = 0.5, cy = 0.5, tiles = {}, lastView = '';
+      function draw() {
+        var w = map.clientWidth, h = map.clientHeight, n = Math.pow(2, z);
+        var px = cx * n * 256 - w / 2, py = cy * n * 256 - h / 2;
+        var x0 = Math.floor(px / 256), y0 = Math.floor(py / 256);
+        var x1 = Math.floor((px + w) / 256), y1 = Math.floor((py + h) / 256);
+        var v = z + ',' + x0 + ',' + y0 + ',' + x1 + ',' + y1;
+        if(v != lastView) {
+          lastView = v;
+          fetch('/viewport?z=' + z + '&x0=' + px / 256 + '&y0=' + py / 256 + '&x1=' + (px + w) / 256
+                + '&y1=' + (py + h) / 256);
+        }
+        var keep = {};
+        for(var y = y0; y <= y1; y++) {
+          for(var x = x0; x <= x1; x++) {
+            var k = z + '/' + x + '/' + y;
+            var img = tiles[k];
+            if(!img) {
+              img = document.createElement('img');
+              img.draggable = false;
+              img.src = '/tiles/' + k + '.png';
+              img.onerror = retry;
+              img.tries = 0;
+              img.key = k;
+              map.appendChild(img);
+            }
+            img.style.left = (x * 256 - px) + 'px';
+            img.style.top = (y * 256 - py) + 'px';
+            keep[k] = img;
+          }
+        }
+        for(var k in tiles) {
+          if(!keep[k]) {
+            tiles[k].onerror = null;
+            tiles[k].src = '';
+            map.removeChild(tiles[k]);
+          }
+        }
+        tiles = keep;
+      }
+      //Ask for a tile that failed again, waiting longer each time, unless it's gone off the screen.
+      function retry() {
+        var img = this;
+        if(tiles[img.key] !== img || img.tries >= 8) return;
+        setTimeout(function() {
+          if(tiles[img.key] === img) {
+            img.src = '/tiles/' + img.key + '.png?try=' + ++img.tries;
+          }
+        }, Math.min(5000, 200 * Math.pow(2, img.tries)));
+      }
+      var dragX = null, dragY = null;
+      map.onmousedown = function(e) { dragX = e.clientX; dragY = e.clientY; };
+      window.onmouseup = function() { dragX = null; };
+      window.onmousemove = function(e) {
+        if(dragX === null) return;
+        var n = Math.pow(2, z) * 256;
+        cx -= (e.clientX - dragX) / n;
+        cy -= (e.clientY - dragY) / n;
+        dragX = e.clientX;
+        dragY = e.clientY;
+        draw();
+      };
+      map.onwheel = function(e) {
+        e.preventDefault();
+        var nz = Math.max(0, Math.min(maxZoom, z + (e.deltaY < 0 ? 1 : -1)));
+        if(nz == z) return;
+        //Zoom about the point under the mouse.
+        var ox = e.clientX - map.clientWidth / 2, oy = e.clientY - map.clientHeight / 2;
+        var n = Math.pow(2, z) * 256, nn = Math.pow(2, nz) * 256;
+        cx += ox / n - ox / nn;
+        cy += oy / n - oy / nn;
+        z = nz;
+        draw();
+      };
+      window.onresize = draw;
+      draw();
+    </script></body></html>
+    """.formatted(MAX_ZOOM);
+}
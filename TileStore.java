@@ -0,0 +1,200 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/* The result of a render kept in a file in square tiles, for images far too big to hold in memory (wall
+ * sized prints). Each tile is the basin and iteration count of its pixels, 2 bytes per pixel as in a
+ * BasinBuffer, and is written straight into the file through memory mapping, so the only memory a render
+ * needs is a tile per thread. Tiles are written by their own threads into separate parts of the file, so
+ * there's nothing to lock.
+ *
+ * The file also records which tiles are finished (each only once its pixels are on disk). If a render crashes
+ * or is stopped, opening the same file again carries on from there: RenderEngine.renderTiles() only solves
+ * the tiles that aren't done yet.
+ *
+ * Layout: a 128 byte header (magic, version, width, height, tile size, and a key naming the render, see
+ * RenderCache.key()), one byte per tile that is 1 once the tile is done, then (from the next 4096 byte
+ * boundary) the tiles in rows, each tileSize x tileSize pixels. Tiles on the right and bottom edges are
+ * padded out to the full size.
+ * */
+
+public class TileStore {
+
+  private static final int MAGIC = 0x4E465054;   //"NFPT"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 128;
+  private static final int KEY_BYTES = 64;
+  //Largest part of the file mapped at once. (A single mapping can't be more than 2 GB.)
+  private static final int SEGMENT_BYTES = 1 << 30;
+
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int tilesX;
+  private final int tilesY;
+  private final int tileBytes;
+  //Tiles in each segment, and the segments themselves.
+  private final int tilesPerSegment;
+  private final MappedByteBuffer[] segments;
+  //One byte per tile, 1 when it's done.
+  private final MappedByteBuffer done;
+
+  private TileStore(int width, int height, int tileSize, FileChannel ch, boolean fresh, String key)
+      throws IOException {
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    tilesX = (width + tileSize - 1) / tileSize;
+    tilesY = (height + tileSize - 1) / tileSize;
+    tileBytes = 2 * tileSize * tileSize;
+    tilesPerSegment = Math.max(1, SEGMENT_BYTES / tileBytes);
+    long tiles = (long)tilesX * tilesY;
+    long dataStart = (HEADER_BYTES + tiles + 4095) / 4096 * 4096;
+    long length = dataStart + tiles * tileBytes;
+
+    if(fresh) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(tileSize);
+      header.put(key.getBytes(StandardCharsets.US_ASCII));
+      header.clear();
+      ch.write(header, 0);
+    } else if(ch.size() != length) {
+      throw new IOException("Tile store is the wrong size, it may be damaged");
+    }
+    done = ch.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, tiles);
+    segments = new MappedByteBuffer[(int) ((tiles + tilesPerSegment - 1) / tilesPerSegment)];
+    for(int s = 0; s < segments.length; s++) {
+      long first = (long)s * tilesPerSegment;
+      long count = Math.min(tilesPerSegment, tiles - first);
+      segments[s] = ch.map(FileChannel.MapMode.READ_WRITE, dataStart + first * tileBytes, count * tileBytes);
+    }
+  }
+
+  //Open the tile store in file, or make it if it doesn't exist yet. key names the render (see
+  //RenderCache.key(), null if there isn't one); an existing file has to be for the same key, size and tile
+  //size, or an IOException is thrown, so a store is never carried on with different settings.
+  public static TileStore open(File file, String key, int width, int height, int tileSize) throws IOException {
+    String k = key == null ? "" : key;
+    if(k.length() > KEY_BYTES) {
+      throw new IllegalArgumentException("Key is longer than " + KEY_BYTES + " characters");
+    }
+    boolean fresh = !file.exists();
+    try(FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE)) {
+      if(!fresh) {
+        ByteBuffer header = readHeader(file, ch);
+        int w = header.getInt(), h = header.getInt(), t = header.getInt();
+        if(w != width || h != height || t != tileSize || !readKey(header).equals(k)) {
+          throw new IOException(file + " is for a different render. Delete it to start again.");
+        }
+      }
+      //(The mappings stay valid after the channel is closed.)
+      return new TileStore(width, height, tileSize, ch, fresh, k);
+    }
+  }
+
+  //Open an existing tile store, whatever it was made for (to color it, say).
+  public static TileStore open(File file) throws IOException {
+    try(FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer header = readHeader(file, ch);
+      int w = header.getInt(), h = header.getInt(), t = header.getInt();
+      return new TileStore(w, h, t, ch, false, readKey(header));
+    }
+  }
+
+  //The header of file, checked and positioned after the magic number and version.
+  private static ByteBuffer readHeader(File file, FileChannel ch) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    ch.read(header, 0);
+    header.flip();
+    if(header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IOException(file + " isn't a tile store");
+    }
+    return header;
+  }
+
+  private static String readKey(ByteBuffer header) {
+    byte[] stored = new byte[KEY_BYTES];
+    header.get(stored);
+    return new String(stored, StandardCharsets.US_ASCII).replace("\0", "");
+  }
+
+  public boolean isDone(int tx, int ty) {
+    return done.get(ty * tilesX + tx) != 0;
+  }
+
+  //Number of tiles that are done.
+  public int countDone() {
+    int count = 0;
+    for(int t = 0; t < tilesX * tilesY; t++) {
+      if(done.get(t) != 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  //Write tile (tx, ty) from samples, a tileSize x tileSize square of them row by row, and mark it done.
+  //Different tiles can be written by different threads at the same time.
+  public void writeTile(int tx, int ty, int[] samples) {
+    int t = ty * tilesX + tx;
+    MappedByteBuffer segment = segments[t / tilesPerSegment];
+    int base = (t % tilesPerSegment) * tileBytes;
+    for(int n = 0; n < tileSize * tileSize; n++) {
+      segment.putChar(base + 2 * n, BasinBuffer.encode(samples[n]));
+    }
+    //The OS can write the pages of a mapping out in any order, so the tile is forced to disk before it's
+    //marked done - otherwise the machine crashing could leave it marked done with only some of it written.
+    //(The mark getting lost instead only means the tile is solved again.)
+    segment.force(base, tileBytes);
+    done.put(t, (byte) 1);
+  }
+
+  //2 byte codes (see BasinBuffer) of row j of the image, width of them.
+  public void readRow(int j, char[] codes) {
+    int ty = j / tileSize;
+    int y = j % tileSize;
+    for(int tx = 0; tx < tilesX; tx++) {
+      int t = ty * tilesX + tx;
+      ByteBuffer segment = segments[t / tilesPerSegment];
+      int base = (t % tilesPerSegment) * tileBytes + 2 * y * tileSize;
+      int count = Math.min(tileSize, width - tx * tileSize);
+      for(int n = 0; n < count; n++) {
+        codes[tx * tileSize + n] = segment.getChar(base + 2 * n);
+      }
+    }
+  }
+
+  //Make sure everything written so far is on disk (not just in the OS's cache), so it survives even the
+  //machine crashing. (If only the render crashes, nothing written is lost either way.)
+  public void force() {
+    for(MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+    done.force();
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  public int getTilesX() {
+    return tilesX;
+  }
+
+  public int getTilesY() {
+    return tilesY;
+  }
+}
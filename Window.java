@@ -0,0 +1,60 @@
+/* The part of the complex plane shown in an image, and the size of the image in pixels. Pixel (i, j) is at
+ * x(i) + y(j)*i. Note that j = 0 is the top row of the image, so y(0) is the upper bound on y, not the lower.
+ * */
+
+public class Window {
+  
+  private final double xLow;
+  private final double xHigh;
+  private final double yLow;
+  private final double yHigh;
+  private final int width;
+  private final int height;
+  
+  public Window(double xLow, double xHigh, double yLow, double yHigh, int width, int height) {
+    this.xLow = xLow;
+    this.xHigh = xHigh;
+    this.yLow = yLow;
+    this.yHigh = yHigh;
+    this.width = width;
+    this.height = height;
+  }
+  
+  //Real part of the pixels in column i
+  public double x(int i) {
+    return ((double)i/width)*(xHigh-xLow) + xLow;
+  }
+  
+  //Imaginary part of the pixels in row j. (Reversed because the top of the image is actually j=0.)
+  public double y(int j) {
+    return (1 - (double)j/height)*(yHigh-yLow) + yLow;
+  }
+  
+  public double getXLow() {
+    return xLow;
+  }
+  
+  public double getXHigh() {
+    return xHigh;
+  }
+  
+  public double getYLow() {
+    return yLow;
+  }
+  
+  public double getYHigh() {
+    return yHigh;
+  }
+  
+  public int getWidth() {
+    return width;
+  }
+  
+  public int getHeight() {
+    return height;
+  }
+  
+  public String toString() {
+    return width + " x " + height + " image of " + xLow + " < x < " + xHigh + ", " + yLow + " < y < " + yHigh;
+  }
+}
@@ -0,0 +1,196 @@
+/* Outputs the frames of a zoom animation, frame_00000.png, frame_00001.png ..., into a directory, zooming
+ * smoothly from one window to another. Each frame reuses the samples of the frame before wherever one of
+ * its pixels lands (almost) on a point that was already solved, and only solves the rest. Coloring and
+ * writing each frame happens on another thread while the next one is solved.
+ * */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/*Instructions for Use
+ *
+ * Set the function and roots the same way as in ComplexImageMaker, then the start and end windows and the
+ * number of frames below. The width and height of the window shrink (or grow) by the same factor every
+ * frame, and the center moves in step with them, so the zoom runs at a constant speed. Run the application;
+ * the frames are output into the zoom directory. To make a video of them, e.g.
+ *
+ *    ffmpeg -framerate 30 -i zoom/frame_%05d.png zoom.mp4
+ *
+ * reuseTolerance is how far (in pixels of the new frame) a pixel can be from a point solved for an earlier
+ * frame and still just take its sample. 0 only reuses points that are exactly the same; larger values skip
+ * more solving, but each reused pixel can be off by up to that much. Reused samples keep track of where
+ * they were really solved, so the error doesn't grow from frame to frame.
+ */
+
+public class ZoomAnimator {
+
+  public static void main(String[] args) {
+
+    //Set frame dimensions and number of frames.
+    int ImageXDim = 1280;
+    int ImageYDim = 720;
+    int frames = 120;
+    double reuseTolerance = 0.25;
+    File outDir = new File("zoom");
+
+    //Set the function (see ComplexImageMaker) - this one is z^3 - z - and its roots.
+    ComplexFunction fn = new Polynomial(0, -1, 0, 1).toFunction(1);
+    NFPIMethod solver = new NFPIMethod(fn);
+    ArrayList<Complex> basinArray = new ArrayList<Complex>();
+    basinArray.add(new Complex(1, 0));
+    basinArray.add(new Complex(0, 0));
+    basinArray.add(new Complex(-1, 0));
+
+    //Start and end windows. This zooms into 1/sqrt(5), where the basins of 0 and 1 meet.
+    Window start = new Window(-2, 2, -1.125, 1.125, ImageXDim, ImageYDim);
+    Window end = new Window(0.4472136 - 0.004, 0.4472136 + 0.004, -0.00225, 0.00225, ImageXDim, ImageYDim);
+
+    //Set alphaFactor and colors (one for each root, plus one for points that don't converge).
+    int alphaFactor = 10;
+    int[] col = new int[Math.max(6, basinArray.size() + 1)];
+    col[0] = (0 << 16) | (91 << 8) | 63;
+    col[1] = (42 << 16) | (153 << 8) | 119;
+    col[2] = (107 << 16) | (201 << 8) | 56;
+    col[3] = (51 << 16) | (98 << 8) | 151;
+    col[4] = (11 << 16) | (59 << 8) | 112;
+    col[5] = (54 << 16) | (149 << 8) | 3;
+    for(int i = 6; i < col.length; i++) {
+      col[i] = ((int) (Math.random()*255) << 16) | ((int) (Math.random()*255) << 8) | (int) (Math.random()*255);
+    }
+
+    if(!outDir.isDirectory() && !outDir.mkdirs()) {
+      System.out.println("Can't make " + outDir);
+      return;
+    }
+    Palette palette = new Palette(col, alphaFactor);
+    RenderEngine engine = new RenderEngine();
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    int pixels = ImageXDim * ImageYDim;
+    //Two frames' samples, and where each pixel was really solved (see reuse()): this frame and the one
+    //before.
+    int[][] samples = {new int[pixels], new int[pixels]};
+    float[][] offX = {new float[pixels], new float[pixels]};
+    float[][] offY = {new float[pixels], new float[pixels]};
+    Window previous = null;
+    Future<?> pending = null;
+    long solved = 0;
+    long startTime = System.nanoTime();
+    try {
+      for(int f = 0; f < frames; f++) {
+        int cur = f % 2;
+        int prev = 1 - cur;
+        Window window = frameWindow(start, end, f, frames);
+        long t = System.nanoTime();
+        long reused = 0;
+        if(previous == null) {
+          Arrays.fill(samples[cur], RenderEngine.UNSOLVED);
+          Arrays.fill(offX[cur], 0);
+          Arrays.fill(offY[cur], 0);
+        } else {
+          reused = reuse(previous, samples[prev], offX[prev], offY[prev], window, samples[cur], offX[cur], offY[cur],
+                         reuseTolerance);
+        }
+        solved += engine.sampleMissing(ImageXDim, ImageYDim, new BasinSampler(solver, basinArray, window),
+                                       samples[cur]);
+        System.out.println("Frame " + f + ": reused " + (100 * reused / pixels) + "% of pixels, solved the rest in "
+                             + (System.nanoTime() - t) / 1000000 + " ms.");
+
+        //Wait for the last frame to be written (it was reading the samples that are overwritten next), then
+        //write this one while the next is solved.
+        if(pending != null) {
+          pending.get();
+        }
+        final int[] frameSamples = samples[cur];
+        final File output = new File(outDir, String.format("frame_%05d.png", f));
+        pending = writer.submit(() -> {
+          BufferedImage img = new BufferedImage(ImageXDim, ImageYDim, BufferedImage.TYPE_INT_ARGB);
+          palette.paint(frameSamples, img);
+          ImageIO.write(img, "PNG", output);
+          return null;
+        });
+        previous = window;
+      }
+      if(pending != null) {
+        pending.get();
+      }
+    } catch(Exception x) {
+      System.out.println(x);
+    } finally {
+      writer.shutdown();
+    }
+    System.out.println(frames + " frames output to " + outDir + " in " + (System.nanoTime() - startTime) / 1000000
+                         + " ms, solving " + (100 * solved / ((long)frames * pixels)) + "% of the pixels.");
+  }
+
+  //Window of frame f of frames going from start to end (the size of start). The width and height change by
+  //the same factor every frame, and the center moves in proportion to how much they've changed so far.
+  public static Window frameWindow(Window start, Window end, int f, int frames) {
+    double t = frames > 1 ? (double)f / (frames - 1) : 0;
+    double w0 = start.getXHigh() - start.getXLow(), w1 = end.getXHigh() - end.getXLow();
+    double h0 = start.getYHigh() - start.getYLow(), h1 = end.getYHigh() - end.getYLow();
+    double w = w0 * Math.pow(w1 / w0, t);
+    double h = h0 * Math.pow(h1 / h0, t);
+    //How far along the zoom is (just t if it doesn't zoom at all).
+    double s = w0 == w1 ? t : (w0 - w) / (w0 - w1);
+    double cx = (start.getXLow() + start.getXHigh()) / 2;
+    double cy = (start.getYLow() + start.getYHigh()) / 2;
+    cx += s * ((end.getXLow() + end.getXHigh()) / 2 - cx);
+    cy += s * ((end.getYLow() + end.getYHigh()) / 2 - cy);
+    return new Window(cx - w/2, cx + w/2, cy - h/2, cy + h/2, start.getWidth(), start.getHeight());
+  }
+
+  //Fill samples (for window) from prevSamples (for prev) wherever a pixel's point is within tolerance pixels
+  //of where the nearest pixel of prev was really solved, and set the rest to UNSOLVED. offX and offY record
+  //where each pixel's sample was really solved, in pixels from the pixel itself (0 for pixels that will be
+  //solved now). Returns the number of pixels reused.
+  public static long reuse(Window prev, int[] prevSamples, float[] prevOffX, float[] prevOffY,
+                           Window window, int[] samples, float[] offX, float[] offY, double tolerance) {
+    int pw = prev.getWidth(), ph = prev.getHeight();
+    int w = window.getWidth(), h = window.getHeight();
+    double pdx = (prev.getXHigh() - prev.getXLow()) / pw;
+    double pdy = (prev.getYHigh() - prev.getYLow()) / ph;
+    double dx = (window.getXHigh() - window.getXLow()) / w;
+    double dy = (window.getYHigh() - window.getYLow()) / h;
+    //Nearest column of prev to each column.
+    int[] columns = new int[w];
+    for(int i = 0; i < w; i++) {
+      columns[i] = (int) Math.round((window.x(i) - prev.getXLow()) / pdx);
+    }
+    long reused = 0;
+    for(int j = 0; j < h; j++) {
+      double y = window.y(j);
+      //(y(j) goes down as j goes up.)
+      long pj = Math.round((prev.getYHigh() - y) / pdy);
+      for(int i = 0; i < w; i++) {
+        int n = j * w + i;
+        samples[n] = RenderEngine.UNSOLVED;
+        offX[n] = 0;
+        offY[n] = 0;
+        int pi = columns[i];
+        if(pj < 0 || pj >= ph || pi < 0 || pi >= pw) {
+          continue;
+        }
+        int pn = (int) pj * pw + pi;
+        if(prevSamples[pn] == RenderEngine.UNSOLVED) {
+          continue;
+        }
+        //Where the sample was really solved, relative to this pixel.
+        double ex = (prev.x(pi) + prevOffX[pn] * pdx - window.x(i)) / dx;
+        double ey = (prev.y((int) pj) + prevOffY[pn] * pdy - y) / dy;
+        if(Math.abs(ex) <= tolerance && Math.abs(ey) <= tolerance) {
+          samples[n] = prevSamples[pn];
+          offX[n] = (float) ex;
+          offY[n] = (float) ey;
+          reused++;
+        }
+      }
+    }
+    return reused;
+  }
+}